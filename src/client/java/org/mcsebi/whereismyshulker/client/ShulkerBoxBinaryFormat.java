@@ -0,0 +1,298 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot format for tracked shulker boxes.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header:  int magic "WIMS", int version, long logGeneration, int stringCount, int recordCount
+ * strings: stringCount times (int byteLength, UTF-8 bytes)
+ * records: recordCount times (int x, int y, int z, long timestamp, int dimension, int color, int name)
+ * contents: int boxCount, boxCount times (int record, int itemCount, itemCount times (int item, int count))
+ * footer:  int crc32 of everything before it
+ * </pre>
+ * Dimension, color and name are indices into the string table, so every distinct string is stored
+ * (and loaded) only once. Records have a fixed width and are read straight from a memory-mapped file.
+ * <p>
+ * The log generation tells which {@link ShulkerBoxWriteAheadLog} is already included in the
+ * snapshot. Snapshots are written to a temporary file and moved over the old one, so a crash while
+ * writing leaves the previous snapshot intact. The contents section only lists boxes that were
+ * opened, item ids are stored in the string table. Version 1 files (no generation, no checksum) and
+ * version 2 files (no contents) can still be read.
+ */
+public final class ShulkerBoxBinaryFormat {
+    public static final int MAGIC = 0x57494D53; // "WIMS"
+    public static final int VERSION = 3;
+
+    private static final int V1_HEADER_BYTES = 16;
+    private static final int HEADER_BYTES = 24;
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int RECORD_BYTES = 4 * 3 + 8 + 4 * 3;
+
+    private ShulkerBoxBinaryFormat() {
+    }
+
+    /**
+     * Read a snapshot into the index.
+     *
+     * @param path Snapshot file
+     * @param boxes Index to fill, records are added in file order
+     * @return Generation of the write-ahead log included in the snapshot, 0 for version 1 files
+     * @throws IOException If the file can't be read or is not a valid snapshot
+     */
+    public static long read(Path path, ShulkerBoxIndex boxes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < V1_HEADER_BYTES) {
+                throw new IOException("Shulker box snapshot is truncated: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a shulker box snapshot: " + path);
+            }
+            int version = buffer.getInt();
+            long logGeneration = 0;
+            if (version == 2 || version == VERSION) {
+                // validate everything before touching the index
+                if (fileSize < HEADER_BYTES + CHECKSUM_BYTES) {
+                    throw new IOException("Shulker box snapshot is truncated: " + path);
+                }
+                int contentBytes = (int) fileSize - CHECKSUM_BYTES;
+                CRC32 crc = new CRC32();
+                crc.update(buffer.slice(0, contentBytes));
+                if ((int) crc.getValue() != buffer.getInt(contentBytes)) {
+                    throw new IOException("Shulker box snapshot checksum mismatch: " + path);
+                }
+                buffer.limit(contentBytes);
+                logGeneration = buffer.getLong();
+            } else if (version != 1) {
+                throw new IOException("Unsupported shulker box snapshot version " + version + ": " + path);
+            }
+            int stringCount = buffer.getInt();
+            int recordCount = buffer.getInt();
+            if (stringCount < 0 || recordCount < 0) {
+                throw new IOException("Corrupted shulker box snapshot header: " + path);
+            }
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Corrupted shulker box string table: " + path);
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            if ((long) recordCount * RECORD_BYTES > buffer.remaining()) {
+                throw new IOException("Shulker box snapshot is truncated: " + path);
+            }
+            int recordsStart = buffer.position();
+
+            for (int i = 0; i < recordCount; i++) {
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                int z = buffer.getInt();
+                long timestamp = buffer.getLong();
+                String dimension = string(strings, buffer.getInt(), path);
+                String color = string(strings, buffer.getInt(), path);
+                String customName = string(strings, buffer.getInt(), path);
+                boxes.put(x, y, z, timestamp, dimension, color, customName);
+            }
+
+            if (version == VERSION) {
+                readContents(buffer, strings, recordsStart, recordCount, boxes, path);
+            }
+            return logGeneration;
+        }
+    }
+
+    private static void readContents(ByteBuffer buffer, String[] strings, int recordsStart, int recordCount,
+                                     ShulkerBoxIndex boxes, Path path) throws IOException {
+        int boxCount = buffer.getInt();
+        for (int i = 0; i < boxCount; i++) {
+            int record = buffer.getInt();
+            int itemCount = buffer.getInt();
+            if (record < 0 || record >= recordCount || itemCount < 0 || (long) itemCount * 8 > buffer.remaining()) {
+                throw new IOException("Corrupted shulker box contents: " + path);
+            }
+            Map<String, Integer> items = new HashMap<>();
+            for (int j = 0; j < itemCount; j++) {
+                items.merge(string(strings, buffer.getInt(), path), buffer.getInt(), Integer::sum);
+            }
+
+            int offset = recordsStart + record * RECORD_BYTES;
+            long packedPos = BlockPos.asLong(buffer.getInt(offset), buffer.getInt(offset + 4), buffer.getInt(offset + 8));
+            String dimension = string(strings, buffer.getInt(offset + 20), path);
+            boxes.setContents(dimension, packedPos, ShulkerBoxContents.of(items));
+        }
+    }
+
+    private static String string(String[] strings, int index, Path path) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid string reference in shulker box snapshot: " + path);
+        }
+        return strings[index];
+    }
+
+    /**
+     * Write a snapshot that doesn't include any write-ahead log.
+     *
+     * @param path Snapshot file
+     * @param boxes Shulker boxes in insertion order
+     * @return Number of bytes written
+     * @throws IOException If the file can't be written
+     */
+    public static long write(Path path, Collection<ShulkerBoxData> boxes) throws IOException {
+        return write(path, boxes, 0);
+    }
+
+    /**
+     * Atomically write a snapshot, replacing the file if it exists.
+     *
+     * @param path Snapshot file
+     * @param boxes Shulker boxes in insertion order
+     * @param logGeneration Generation of the write-ahead log included in the snapshot
+     * @return Number of bytes written
+     * @throws IOException If the file can't be written
+     */
+    public static long write(Path path, Collection<ShulkerBoxData> boxes, long logGeneration) throws IOException {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] references = new int[boxes.size() * 3];
+        long stringBytes = 0;
+
+        int r = 0;
+        int openedCount = 0;
+        long contentsBytes = 4;
+        for (ShulkerBoxData data : boxes) {
+            for (String value : new String[]{data.getDimension(), data.getColor(), data.getCustomName()}) {
+                String key = value == null ? "" : value;
+                Integer index = stringIndex.get(key);
+                if (index == null) {
+                    index = strings.size();
+                    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                    strings.add(bytes);
+                    stringIndex.put(key, index);
+                    stringBytes += 4 + bytes.length;
+                }
+                references[r++] = index;
+            }
+
+            ShulkerBoxContents contents = data.getContents();
+            if (contents != null) {
+                openedCount++;
+                contentsBytes += 8 + contents.size() * 8L;
+                for (int i = 0; i < contents.size(); i++) {
+                    String item = contents.getItem(i);
+                    if (!stringIndex.containsKey(item)) {
+                        byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+                        stringIndex.put(item, strings.size());
+                        strings.add(bytes);
+                        stringBytes += 4 + bytes.length;
+                    }
+                }
+            }
+        }
+
+        long totalBytes = HEADER_BYTES + stringBytes + (long) boxes.size() * RECORD_BYTES + contentsBytes + CHECKSUM_BYTES;
+        if (totalBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many shulker boxes for a single snapshot");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) totalBytes);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(logGeneration);
+        buffer.putInt(strings.size());
+        buffer.putInt(boxes.size());
+        for (byte[] bytes : strings) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        r = 0;
+        for (ShulkerBoxData data : boxes) {
+            BlockPos pos = data.getPosition();
+            buffer.putInt(pos.getX());
+            buffer.putInt(pos.getY());
+            buffer.putInt(pos.getZ());
+            buffer.putLong(data.getTimestamp());
+            buffer.putInt(references[r++]);
+            buffer.putInt(references[r++]);
+            buffer.putInt(references[r++]);
+        }
+
+        buffer.putInt(openedCount);
+        int record = 0;
+        for (ShulkerBoxData data : boxes) {
+            ShulkerBoxContents contents = data.getContents();
+            if (contents != null) {
+                buffer.putInt(record);
+                buffer.putInt(contents.size());
+                for (int i = 0; i < contents.size(); i++) {
+                    buffer.putInt(stringIndex.get(contents.getItem(i)));
+                    buffer.putInt(contents.getCount(i));
+                }
+            }
+            record++;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Files.createDirectories(path.getParent());
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // the data has to be on disk before the rename makes it visible
+            channel.force(true);
+        }
+        try {
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(path.getParent());
+        return totalBytes;
+    }
+
+    /**
+     * Make a rename in a directory durable. Not supported on every platform (e.g. Windows), where
+     * this does nothing.
+     *
+     * @param directory Directory to sync
+     */
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+}
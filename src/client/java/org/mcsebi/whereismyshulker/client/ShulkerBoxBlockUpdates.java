@@ -0,0 +1,114 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.ShulkerBoxBlock;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.network.packet.s2c.play.ChunkDeltaUpdateS2CPacket;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Watches block updates sent by the server for tracked positions, so shulker boxes that are mined by
+ * other players, blown up or pushed away while we watch are dropped.
+ * <p>
+ * Every update is checked against the tracked positions of its chunk, which is a hash lookup followed
+ * by a scan of a handful of entries, or nothing at all for chunks without tracked boxes. Matches are
+ * collected and handed to the tracker once per tick, so a large explosion results in one batch.
+ */
+public class ShulkerBoxBlockUpdates {
+    private static ShulkerBoxBlockUpdates instance;
+
+    private final LongArrayList removed = new LongArrayList();
+    private ClientWorld world;
+    private String dimension;
+
+    // chunk of the previous update, delta updates always hit the same chunk
+    private long cachedChunk;
+    private LongList cachedBucket;
+
+    private ShulkerBoxBlockUpdates() {
+    }
+
+    public static ShulkerBoxBlockUpdates getInstance() {
+        if (instance == null) {
+            instance = new ShulkerBoxBlockUpdates();
+        }
+        return instance;
+    }
+
+    /**
+     * Called after the client applied a single block update.
+     *
+     * @param world The world the update belongs to
+     * @param pos Updated position
+     * @param state New block state
+     */
+    public void onBlockUpdate(ClientWorld world, BlockPos pos, BlockState state) {
+        if (prepare(world)) {
+            check(pos, state);
+        }
+        cachedBucket = null;
+    }
+
+    /**
+     * Called after the client applied a multi-block update of one chunk section.
+     *
+     * @param world The world the update belongs to
+     * @param packet The applied update
+     */
+    public void onChunkDeltaUpdate(ClientWorld world, ChunkDeltaUpdateS2CPacket packet) {
+        if (prepare(world)) {
+            packet.visitUpdates(this::check);
+        }
+        cachedBucket = null;
+    }
+
+    /**
+     * Hand the updates collected during this tick to the tracker.
+     *
+     * @param client Minecraft client instance
+     */
+    public void onTick(MinecraftClient client) {
+        flush();
+    }
+
+    private boolean prepare(ClientWorld world) {
+        if (ShulkerBoxTracker.getInstance().isLoading()) {
+            // the chunk reconciliation checks everything once loading is done
+            return false;
+        }
+        if (world != this.world) {
+            flush();
+            this.world = world;
+            this.dimension = world.getRegistryKey().getValue().toString();
+        }
+        return true;
+    }
+
+    private void check(BlockPos pos, BlockState state) {
+        int chunkX = pos.getX() >> 4;
+        int chunkZ = pos.getZ() >> 4;
+        long chunk = ChunkPos.toLong(chunkX, chunkZ);
+        if (cachedBucket == null || chunk != cachedChunk) {
+            cachedChunk = chunk;
+            cachedBucket = ShulkerBoxTracker.getInstance().getTrackedInChunk(dimension, chunkX, chunkZ);
+        }
+        if (cachedBucket.isEmpty() || state.getBlock() instanceof ShulkerBoxBlock) {
+            return;
+        }
+        long packedPos = pos.asLong();
+        if (cachedBucket.contains(packedPos)) {
+            removed.add(packedPos);
+        }
+    }
+
+    private void flush() {
+        if (!removed.isEmpty()) {
+            ShulkerBoxTracker.getInstance().removeMissingShulkerBoxes(dimension, removed);
+            removed.clear();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Buckets tracked positions by chunk, per dimension.
+ * <p>
+ * Nearest neighbour queries walk rings of chunks outward from the player and stop as soon as no
+ * unvisited chunk can hold anything closer than the current k-th result. If the rings would cover
+ * more cells than there are occupied chunks, the remaining occupied chunks are scanned directly,
+ * so sparse histories with far away boxes don't degrade into walking empty space.
+ */
+public class ShulkerBoxChunkGrid {
+    private final Map<String, Long2ObjectOpenHashMap<LongArrayList>> chunks = new HashMap<>();
+
+    public void add(String dimension, long packedPos) {
+        chunks.computeIfAbsent(dimension, k -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(chunkKey(packedPos), k -> new LongArrayList(4))
+                .add(packedPos);
+    }
+
+    public void remove(String dimension, long packedPos) {
+        Long2ObjectOpenHashMap<LongArrayList> dimensionChunks = chunks.get(dimension);
+        if (dimensionChunks == null) {
+            return;
+        }
+        long key = chunkKey(packedPos);
+        LongArrayList bucket = dimensionChunks.get(key);
+        if (bucket == null) {
+            return;
+        }
+        // buckets are tiny, swap the last element into the gap
+        int index = bucket.indexOf(packedPos);
+        if (index >= 0) {
+            bucket.set(index, bucket.getLong(bucket.size() - 1));
+            bucket.removeLong(bucket.size() - 1);
+        }
+        if (bucket.isEmpty()) {
+            dimensionChunks.remove(key);
+        }
+    }
+
+    public void clear() {
+        chunks.clear();
+    }
+
+    /**
+     * Get the tracked positions inside a chunk.
+     *
+     * @param dimension Dimension identifier
+     * @param chunkX Chunk x coordinate
+     * @param chunkZ Chunk z coordinate
+     * @return Packed positions in that chunk, empty if there are none. Must not be modified.
+     */
+    public LongList getChunk(String dimension, int chunkX, int chunkZ) {
+        Long2ObjectOpenHashMap<LongArrayList> dimensionChunks = chunks.get(dimension);
+        if (dimensionChunks == null) {
+            return LongList.of();
+        }
+        LongArrayList bucket = dimensionChunks.get(ChunkPos.toLong(chunkX, chunkZ));
+        return bucket != null ? bucket : LongList.of();
+    }
+
+    /**
+     * Visit every chunk that holds tracked positions.
+     *
+     * @param dimension Dimension identifier
+     * @param action Called with the packed chunk position, see {@link ChunkPos#toLong}
+     */
+    public void forEachChunk(String dimension, LongConsumer action) {
+        Long2ObjectOpenHashMap<LongArrayList> dimensionChunks = chunks.get(dimension);
+        if (dimensionChunks != null) {
+            dimensionChunks.keySet().forEach(action);
+        }
+    }
+
+    /**
+     * Find the tracked positions closest to a point, by horizontal distance.
+     *
+     * @param dimension Dimension identifier
+     * @param center Point to search from
+     * @param k Maximum number of results
+     * @param radius Maximum horizontal distance in blocks
+     * @return Packed positions, closest first
+     */
+    public LongList nearest(String dimension, BlockPos center, int k, int radius) {
+        Long2ObjectOpenHashMap<LongArrayList> dimensionChunks = chunks.get(dimension);
+        if (dimensionChunks == null || k <= 0) {
+            return LongList.of();
+        }
+
+        long radiusSq = (long) radius * radius;
+        int centerChunkX = center.getX() >> 4;
+        int centerChunkZ = center.getZ() >> 4;
+        // max-heap on distance holding the best k candidates
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k + 1, Comparator.comparingLong(Candidate::distanceSq).reversed());
+
+        int maxRing = radius / 16 + 1;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            long side = 2L * ring + 1;
+            if (side * side > dimensionChunks.size()) {
+                // cheaper to look at the occupied chunks that are left than to keep walking rings
+                for (Long2ObjectMap.Entry<LongArrayList> entry : dimensionChunks.long2ObjectEntrySet()) {
+                    long key = entry.getLongKey();
+                    int ringOfChunk = Math.max(Math.abs(ChunkPos.getPackedX(key) - centerChunkX),
+                            Math.abs(ChunkPos.getPackedZ(key) - centerChunkZ));
+                    if (ringOfChunk >= ring) {
+                        collect(entry.getValue(), center, k, radiusSq, best);
+                    }
+                }
+                break;
+            }
+
+            for (int dx = -ring; dx <= ring; dx++) {
+                boolean edgeColumn = dx == -ring || dx == ring;
+                for (int dz = -ring; dz <= ring; dz += edgeColumn ? 1 : 2 * ring) {
+                    LongArrayList bucket = dimensionChunks.get(ChunkPos.toLong(centerChunkX + dx, centerChunkZ + dz));
+                    if (bucket != null) {
+                        collect(bucket, center, k, radiusSq, best);
+                    }
+                }
+            }
+
+            // everything in later rings is at least ring * 16 blocks away
+            long nextMin = (long) ring * 16;
+            if (best.size() == k && best.peek().distanceSq() <= nextMin * nextMin) {
+                break;
+            }
+        }
+
+        long[] result = new long[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = best.poll().packedPos();
+        }
+        return LongArrayList.wrap(result);
+    }
+
+    private static void collect(LongArrayList bucket, BlockPos center, int k, long radiusSq, PriorityQueue<Candidate> best) {
+        for (int i = 0; i < bucket.size(); i++) {
+            long packedPos = bucket.getLong(i);
+            long dx = BlockPos.unpackLongX(packedPos) - center.getX();
+            long dz = BlockPos.unpackLongZ(packedPos) - center.getZ();
+            long distanceSq = dx * dx + dz * dz;
+            if (distanceSq > radiusSq) {
+                continue;
+            }
+            if (best.size() < k) {
+                best.add(new Candidate(packedPos, distanceSq));
+            } else if (distanceSq < best.peek().distanceSq()) {
+                best.poll();
+                best.add(new Candidate(packedPos, distanceSq));
+            }
+        }
+    }
+
+    private static long chunkKey(long packedPos) {
+        return ChunkPos.toLong(BlockPos.unpackLongX(packedPos) >> 4, BlockPos.unpackLongZ(packedPos) >> 4);
+    }
+
+    private record Candidate(long packedPos, long distanceSq) {
+    }
+}
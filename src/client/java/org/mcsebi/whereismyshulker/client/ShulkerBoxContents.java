@@ -0,0 +1,111 @@
+package org.mcsebi.whereismyshulker.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What was in a shulker box the last time the player looked inside: item ids with their total count.
+ * <p>
+ * Stacks of the same item are summed up and the ids are sorted, so two captures of the same
+ * contents are equal no matter how the items were arranged. Immutable.
+ */
+public final class ShulkerBoxContents {
+    public static final ShulkerBoxContents EMPTY = new ShulkerBoxContents(new String[0], new int[0]);
+
+    private final String[] items;
+    private final int[] counts;
+
+    private ShulkerBoxContents(String[] items, int[] counts) {
+        this.items = items;
+        this.counts = counts;
+    }
+
+    /**
+     * @param itemCounts Total count per item id
+     * @return Contents holding the items with a positive count
+     */
+    public static ShulkerBoxContents of(Map<String, Integer> itemCounts) {
+        TreeMap<String, Integer> sorted = new TreeMap<>();
+        itemCounts.forEach((item, count) -> {
+            if (count != null && count > 0) {
+                sorted.merge(item, count, Integer::sum);
+            }
+        });
+        if (sorted.isEmpty()) {
+            return EMPTY;
+        }
+
+        String[] items = new String[sorted.size()];
+        int[] counts = new int[sorted.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+            items[i] = entry.getKey();
+            counts[i] = entry.getValue();
+            i++;
+        }
+        return new ShulkerBoxContents(items, counts);
+    }
+
+    /**
+     * @return Number of distinct items
+     */
+    public int size() {
+        return items.length;
+    }
+
+    public boolean isEmpty() {
+        return items.length == 0;
+    }
+
+    /**
+     * @param index Index between 0 and size - 1, items are sorted by id
+     * @return Item id, e.g. minecraft:diamond
+     */
+    public String getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * @param index Index between 0 and size - 1
+     * @return Total count of the item at that index
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param item Item id
+     * @return Total count of the item, 0 if it isn't in the box
+     */
+    public int countOf(String item) {
+        int index = Arrays.binarySearch(items, item);
+        return index >= 0 ? counts[index] : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof ShulkerBoxContents other
+                && Arrays.equals(items, other.items) && Arrays.equals(counts, other.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(items) + Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(counts[i]).append("x ").append(items[i]);
+        }
+        return result.append(']').toString();
+    }
+}
@@ -0,0 +1,82 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.fabricmc.fabric.api.client.screen.v1.ScreenEvents;
+import net.minecraft.block.ShulkerBoxBlock;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.gui.screen.ingame.ShulkerBoxScreen;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.screen.ShulkerBoxScreenHandler;
+import net.minecraft.util.ActionResult;
+import net.minecraft.util.Hand;
+import net.minecraft.util.hit.BlockHitResult;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records what is inside a shulker box when the player closes its screen.
+ * <p>
+ * The screen itself doesn't know which block it belongs to, so the position is taken from the last
+ * shulker box the player right-clicked shortly before the screen opened. Capturing on close includes
+ * whatever the player took out or put in.
+ */
+public class ShulkerBoxContentsCapture {
+    // number of slots of the box itself, the player inventory follows
+    private static final int BOX_SLOTS = 27;
+    // a screen opening later than this after the click belongs to something else
+    private static final long MAX_OPEN_DELAY_MS = 3000;
+
+    private BlockPos pendingPos;
+    private long pendingTime;
+
+    /**
+     * Remember the shulker box the player interacts with.
+     *
+     * @return Always {@link ActionResult#PASS}, the interaction itself is not changed
+     */
+    public ActionResult onUseBlock(PlayerEntity player, World world, Hand hand, BlockHitResult hitResult) {
+        if (world.isClient() && world.getBlockState(hitResult.getBlockPos()).getBlock() instanceof ShulkerBoxBlock) {
+            pendingPos = hitResult.getBlockPos().toImmutable();
+            pendingTime = System.currentTimeMillis();
+        }
+        return ActionResult.PASS;
+    }
+
+    /**
+     * Start watching a shulker box screen that was opened for the remembered position.
+     *
+     * @param client Minecraft client instance
+     * @param screen The opened screen
+     */
+    public void onScreenInit(MinecraftClient client, Screen screen, int scaledWidth, int scaledHeight) {
+        if (!(screen instanceof ShulkerBoxScreen shulkerScreen) || pendingPos == null) {
+            return;
+        }
+        BlockPos pos = pendingPos;
+        pendingPos = null;
+        if (System.currentTimeMillis() - pendingTime > MAX_OPEN_DELAY_MS) {
+            return;
+        }
+        ScreenEvents.remove(screen).register(closed -> capture(client, shulkerScreen.getScreenHandler(), pos));
+    }
+
+    private void capture(MinecraftClient client, ShulkerBoxScreenHandler handler, BlockPos pos) {
+        if (client.world == null) {
+            return;
+        }
+
+        Map<String, Integer> items = new HashMap<>();
+        for (int i = 0; i < BOX_SLOTS && i < handler.slots.size(); i++) {
+            ItemStack stack = handler.getSlot(i).getStack();
+            if (!stack.isEmpty()) {
+                items.merge(Registries.ITEM.getId(stack.getItem()).toString(), stack.getCount(), Integer::sum);
+            }
+        }
+        ShulkerBoxTracker.getInstance().onShulkerBoxContents(pos, client.world, ShulkerBoxContents.of(items));
+    }
+}
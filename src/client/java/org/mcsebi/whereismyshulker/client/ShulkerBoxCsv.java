@@ -0,0 +1,58 @@
+package org.mcsebi.whereismyshulker.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * CSV import and export of tracked shulker boxes. CSV was the storage format of earlier versions and
+ * is kept as a human readable exchange format.
+ */
+public final class ShulkerBoxCsv {
+
+    private ShulkerBoxCsv() {
+    }
+
+    /**
+     * Read a CSV file into the index. Invalid lines are skipped.
+     *
+     * @param path CSV file
+     * @param boxes Index to add the shulker boxes to
+     * @return Number of shulker boxes read
+     * @throws IOException If the file can't be read
+     */
+    public static int read(Path path, ShulkerBoxIndex boxes) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            ShulkerBoxCsvCodec.Reader records = new ShulkerBoxCsvCodec.Reader(reader);
+            while (records.nextRecord() >= 0) {
+                if (records.readShulkerBoxInto(0, boxes)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write shulker boxes to a CSV file, replacing the file if it exists.
+     *
+     * @param path CSV file
+     * @param boxes Shulker boxes in insertion order
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Path path, Collection<ShulkerBoxData> boxes) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ShulkerBoxCsvCodec.Writer records = new ShulkerBoxCsvCodec.Writer(writer);
+            for (ShulkerBoxData data : boxes) {
+                records.writeShulkerBox(data);
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Streaming CSV codec for shulker box records.
+ * <p>
+ * Records are {@code x,y,z,dimension,color,timestamp,name}. Fields containing commas, quotes or line
+ * breaks are quoted, quotes inside are doubled. Files written by older versions didn't quote names,
+ * so unquoted surplus fields at the end of a record are joined back into the name.
+ * <p>
+ * Neither direction builds intermediate Strings per field: the writer formats numbers straight into
+ * a reused buffer, the reader copies each record into a reused char buffer and parses numbers in
+ * place. Strings are only created for dimension, color and name and are cached between records.
+ */
+public final class ShulkerBoxCsvCodec {
+    public static final int SHULKER_BOX_FIELDS = 7;
+
+    private ShulkerBoxCsvCodec() {
+    }
+
+    /**
+     * Append a shulker box as CSV record (without line separator).
+     *
+     * @param out Buffer to append to
+     * @param data Shulker box to encode
+     */
+    public static void appendShulkerBox(StringBuilder out, ShulkerBoxData data) {
+        BlockPos pos = data.getPosition();
+        out.append(pos.getX()).append(',')
+                .append(pos.getY()).append(',')
+                .append(pos.getZ()).append(',');
+        appendField(out, data.getDimension());
+        out.append(',');
+        appendField(out, data.getColor());
+        out.append(',').append(data.getTimestamp()).append(',');
+        appendField(out, data.getCustomName());
+    }
+
+    /**
+     * Append a text field, quoting it if necessary.
+     *
+     * @param out Buffer to append to
+     * @param value Field value, null is written as empty field
+     */
+    public static void appendField(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            out.append(value);
+            return;
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Encode a single shulker box.
+     *
+     * @param data Shulker box to encode
+     * @return CSV record without line separator
+     */
+    public static String toCsv(ShulkerBoxData data) {
+        StringBuilder out = new StringBuilder(64);
+        appendShulkerBox(out, data);
+        return out.toString();
+    }
+
+    /**
+     * Decode a single CSV record.
+     *
+     * @param line CSV record
+     * @return Decoded shulker box or null if the record is invalid
+     */
+    public static ShulkerBoxData fromCsv(String line) {
+        try {
+            Reader reader = new Reader(new StringReader(line));
+            return reader.nextRecord() < 0 ? null : reader.readShulkerBox(0);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes CSV records through a reused buffer.
+     */
+    public static final class Writer {
+        private final java.io.Writer out;
+        private final StringBuilder line = new StringBuilder(128);
+        private char[] chars = new char[128];
+
+        public Writer(java.io.Writer out) {
+            this.out = out;
+        }
+
+        /**
+         * @return Buffer for the next record, cleared. Call {@link #endRecord()} once it is filled.
+         */
+        public StringBuilder beginRecord() {
+            line.setLength(0);
+            return line;
+        }
+
+        /**
+         * Write the record built in {@link #beginRecord()} followed by a line separator.
+         */
+        public void endRecord() throws IOException {
+            line.append('\n');
+            int length = line.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            line.getChars(0, length, chars, 0);
+            out.write(chars, 0, length);
+        }
+
+        public void writeShulkerBox(ShulkerBoxData data) throws IOException {
+            appendShulkerBox(beginRecord(), data);
+            endRecord();
+        }
+    }
+
+    /**
+     * Reads CSV records one at a time into a reused buffer.
+     */
+    public static final class Reader {
+        private static final int STRING_CACHE_SIZE = 256;
+
+        private final java.io.Reader in;
+        private final char[] input = new char[8192];
+        private int inputPos;
+        private int inputLimit;
+        private long charsRead;
+
+        // current record, fields are ranges in the record buffer
+        private char[] record = new char[256];
+        private int recordLength;
+        private int[] fieldStarts = new int[16];
+        private int[] fieldEnds = new int[16];
+        private int fieldCount;
+
+        private final String[] stringCache = new String[STRING_CACHE_SIZE];
+
+        public Reader(java.io.Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the next record. Quoted fields may span multiple lines.
+         *
+         * @return Number of fields in the record, -1 at the end of the input
+         */
+        public int nextRecord() throws IOException {
+            fieldCount = 0;
+            recordLength = 0;
+
+            int c = read();
+            if (c == -1) {
+                return -1;
+            }
+
+            startField();
+            boolean inQuotes = false;
+            while (true) {
+                if (inQuotes) {
+                    if (c == -1) {
+                        // unterminated quote, take what we have
+                        endField();
+                        break;
+                    }
+                    if (c == '"') {
+                        int next = read();
+                        if (next != '"') {
+                            inQuotes = false;
+                            c = next;
+                            continue;
+                        }
+                    }
+                    put((char) c);
+                } else if (c == -1 || c == '\n') {
+                    endField();
+                    break;
+                } else if (c == ',') {
+                    endField();
+                    startField();
+                } else if (c == '"' && recordLength == fieldStarts[fieldCount]) {
+                    inQuotes = true;
+                } else if (c != '\r') {
+                    put((char) c);
+                }
+                c = read();
+            }
+            return fieldCount;
+        }
+
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        /**
+         * @return Number of characters consumed so far
+         */
+        public long charsRead() {
+            return charsRead;
+        }
+
+        public boolean fieldEquals(int field, String value) {
+            int start = fieldStarts[field];
+            int length = fieldEnds[field] - start;
+            if (length != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (record[start + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int intField(int field) {
+            long value = longField(field);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Value out of int range");
+            }
+            return (int) value;
+        }
+
+        public long longField(int field) {
+            int pos = fieldStarts[field];
+            int end = fieldEnds[field];
+            boolean negative = pos < end && record[pos] == '-';
+            if (negative) {
+                pos++;
+            }
+            if (pos == end || end - pos > 19) {
+                throw new NumberFormatException("Invalid number");
+            }
+            long value = 0;
+            for (; pos < end; pos++) {
+                int digit = record[pos] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Invalid number");
+                }
+                value = value * 10 + digit;
+                if (value < 0) {
+                    throw new NumberFormatException("Number too large");
+                }
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Get a text field. Recently seen values are returned as the same String instance.
+         */
+        public String stringField(int field) {
+            int start = fieldStarts[field];
+            int length = fieldEnds[field] - start;
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + record[start + i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+            String cached = stringCache[slot];
+            if (cached != null && fieldEquals(field, cached)) {
+                return cached;
+            }
+            String value = new String(record, start, length);
+            stringCache[slot] = value;
+            return value;
+        }
+
+        /**
+         * Decode a shulker box from the current record.
+         *
+         * @param first Index of the field holding the x coordinate
+         * @return Decoded shulker box or null if the record is invalid
+         */
+        public ShulkerBoxData readShulkerBox(int first) {
+            int fields = fieldCount - first;
+            if (fields < SHULKER_BOX_FIELDS - 1) {
+                return null;
+            }
+            try {
+                BlockPos pos = new BlockPos(intField(first), intField(first + 1), intField(first + 2));
+                return new ShulkerBoxData(pos, stringField(first + 3), stringField(first + 4),
+                        longField(first + 5), nameField(first + 6));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Decode a shulker box from the current record straight into an index.
+         *
+         * @param first Index of the field holding the x coordinate
+         * @param boxes Index to add the shulker box to
+         * @return False if the record is invalid
+         */
+        public boolean readShulkerBoxInto(int first, ShulkerBoxIndex boxes) {
+            int fields = fieldCount - first;
+            if (fields < SHULKER_BOX_FIELDS - 1) {
+                return false;
+            }
+            try {
+                boxes.put(intField(first), intField(first + 1), intField(first + 2), longField(first + 5),
+                        stringField(first + 3), stringField(first + 4), nameField(first + 6));
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private String nameField(int field) {
+            if (field >= fieldCount) {
+                return "";
+            }
+            if (field == fieldCount - 1) {
+                return stringField(field);
+            }
+            // unquoted name with commas written by an older version
+            StringBuilder name = new StringBuilder();
+            for (int i = field; i < fieldCount; i++) {
+                if (i > field) {
+                    name.append(',');
+                }
+                name.append(record, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+            }
+            return name.toString();
+        }
+
+        private void startField() {
+            if (fieldCount == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            }
+            fieldStarts[fieldCount] = recordLength;
+        }
+
+        private void endField() {
+            fieldEnds[fieldCount] = recordLength;
+            fieldCount++;
+        }
+
+        private void put(char c) {
+            if (recordLength == record.length) {
+                record = Arrays.copyOf(record, record.length * 2);
+            }
+            record[recordLength++] = c;
+        }
+
+        private int read() throws IOException {
+            if (inputPos == inputLimit) {
+                inputLimit = in.read(input, 0, input.length);
+                inputPos = 0;
+                if (inputLimit <= 0) {
+                    inputLimit = 0;
+                    return -1;
+                }
+            }
+            charsRead++;
+            return input[inputPos++];
+        }
+    }
+}
@@ -8,13 +8,21 @@ public class ShulkerBoxData {
     private final String color;
     private final String customName;
     private final long timestamp;
+    // null until the player looked inside
+    private final ShulkerBoxContents contents;
 
     public ShulkerBoxData(BlockPos position, String dimension, String color, long timestamp, String customName) {
+        this(position, dimension, color, timestamp, customName, null);
+    }
+
+    public ShulkerBoxData(BlockPos position, String dimension, String color, long timestamp, String customName,
+                          ShulkerBoxContents contents) {
         this.position = position;
         this.dimension = dimension;
         this.color = color;
         this.timestamp = timestamp;
         this.customName = customName;
+        this.contents = contents;
     }
 
     public BlockPos getPosition() {
@@ -35,35 +43,21 @@ public class ShulkerBoxData {
 
     public boolean hasCustomName() { return customName != null && !customName.isEmpty(); }
 
-    // Convert to CSV format
+    /**
+     * @return Contents seen the last time the box was opened, or null if it was never opened
+     */
+    public ShulkerBoxContents getContents() { return contents; }
+
+    public boolean hasContents() { return contents != null; }
+
+    // Convert to CSV format, see ShulkerBoxCsvCodec
     public String toCsv() {
-        return String.format("%d,%d,%d,%s,%s,%d,%s",
-                position.getX(),
-                position.getY(),
-                position.getZ(),
-                dimension,
-                color,
-                timestamp,
-                customName);
+        return ShulkerBoxCsvCodec.toCsv(this);
     }
 
-    // Parse from CSV format
+    // Parse from CSV format, see ShulkerBoxCsvCodec
     public static ShulkerBoxData fromCsv(String csvLine) {
-        String[] parts = csvLine.split(",");
-        if (parts.length != 7 && parts.length != 6) {
-            return null;
-        }
-        try {
-            BlockPos pos = new BlockPos(
-                    Integer.parseInt(parts[0]),
-                    Integer.parseInt(parts[1]),
-                    Integer.parseInt(parts[2])
-            );
-            String customName = parts.length == 7 ? parts[6] : "";
-            return new ShulkerBoxData(pos, parts[3], parts[4], Long.parseLong(parts[5]), customName);
-        } catch (NumberFormatException e) {
-            return null;
-        }
+        return ShulkerBoxCsvCodec.fromCsv(csvLine);
     }
 
     @Override
@@ -0,0 +1,405 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export and import of tracked shulker boxes as CSV, gzip compressed CSV or JSON Lines.
+ * <p>
+ * Files are streamed record by record on a background thread, neither direction holds the file in
+ * memory. Exports read one dimension at a time, see {@link ShulkerBoxTracker#readShulkerBoxes(String)}.
+ * Imported records are handed to the tracker in batches on the client thread, where they are merged
+ * by dimension and position, see {@link ShulkerBoxTracker#mergeImported(List)}. Only a few batches
+ * are handed over at once, reading waits until they are merged, which for dimensions that aren't
+ * loaded happens after their background load. Only one export or import runs at a time.
+ */
+public class ShulkerBoxExchange {
+    private static ShulkerBoxExchange instance;
+
+    // records handed to the client thread at once
+    private static final int BATCH_SIZE = 1024;
+    // batches handed to the client thread that it hasn't merged yet
+    private static final int MAX_PENDING_BATCHES = 4;
+    // progress is reported every this many percent
+    private static final int PROGRESS_STEP = 10;
+
+    /**
+     * Supported file formats, recognized by their file extension.
+     */
+    public enum Format {
+        CSV("csv"),
+        CSV_GZIP("csv.gz"),
+        JSON_LINES("jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @param extension File extension without leading dot
+         * @return The format, or null if the extension is unknown
+         */
+        public static Format ofExtension(String extension) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(extension)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param file File name or path
+         * @return The format matching the file extension, or null if it is unknown
+         */
+        public static Format ofFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            // check the longest extension first, csv.gz before csv
+            Format match = null;
+            for (Format format : values()) {
+                if (name.endsWith("." + format.extension)
+                        && (match == null || format.extension.length() > match.extension.length())) {
+                    match = format;
+                }
+            }
+            return match;
+        }
+    }
+
+    private Thread worker;
+    // replaced for every run, so a cancelled run stays cancelled
+    private AtomicBoolean cancelled = new AtomicBoolean();
+
+    private ShulkerBoxExchange() {
+    }
+
+    public static ShulkerBoxExchange getInstance() {
+        if (instance == null) {
+            instance = new ShulkerBoxExchange();
+        }
+        return instance;
+    }
+
+    /**
+     * @return True while an export or import is running
+     */
+    public boolean isRunning() {
+        return worker != null;
+    }
+
+    /**
+     * Write all tracked shulker boxes to a file in the background, replacing the file if it exists.
+     *
+     * @param client Minecraft client instance
+     * @param file File to write
+     * @param format File format
+     * @param feedback Receives progress and the result, called on the client thread
+     * @return False if an export or import is already running
+     * @throws IOException If no world is loaded or shulker boxes are still loading
+     */
+    public boolean export(MinecraftClient client, Path file, Format format, Consumer<Text> feedback) throws IOException {
+        if (isRunning()) {
+            return false;
+        }
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        List<String> dimensions = tracker.getDimensions();
+
+        AtomicBoolean runCancelled = startRun();
+        worker = startWorker(() -> {
+            int written = 0;
+            int step = 0;
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                try (BufferedWriter writer = newWriter(file, format)) {
+                    StringBuilder line = new StringBuilder(128);
+                    for (int d = 0; d < dimensions.size() && !runCancelled.get(); d++) {
+                        // only one dimension is held at a time, read on the IO thread unless it is loaded
+                        String dimension = dimensions.get(d);
+                        List<ShulkerBoxData> boxes = client.submit(() -> tracker.readShulkerBoxes(dimension))
+                                .thenCompose(read -> read).join();
+                        for (int i = 0; i < boxes.size() && !runCancelled.get(); i++) {
+                            line.setLength(0);
+                            if (format == Format.JSON_LINES) {
+                                ShulkerBoxJsonCodec.appendShulkerBox(line, boxes.get(i));
+                            } else {
+                                ShulkerBoxCsvCodec.appendShulkerBox(line, boxes.get(i));
+                            }
+                            writer.append(line).append('\n');
+                        }
+                        written += boxes.size();
+
+                        int percent = (d + 1) * 100 / dimensions.size();
+                        if (percent / PROGRESS_STEP > step && d + 1 < dimensions.size()) {
+                            step = percent / PROGRESS_STEP;
+                            report(client, runCancelled, feedback, Text.literal("Export " + percent + "% done"));
+                        }
+                    }
+                }
+                finish(client, runCancelled, feedback, Text.literal("Exported " + written + " shulker boxes to " + file));
+            } catch (IOException | CompletionException e) {
+                e.printStackTrace();
+                finish(client, runCancelled, feedback, Text.literal("Export failed: " + e.getMessage()));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Read a file in the background and merge its shulker boxes into the tracked ones. Invalid records
+     * are skipped.
+     *
+     * @param client Minecraft client instance
+     * @param file File to read
+     * @param format File format
+     * @param feedback Receives progress and the result, called on the client thread
+     * @return False if an export or import is already running
+     */
+    public boolean importFile(MinecraftClient client, Path file, Format format, Consumer<Text> feedback) {
+        if (isRunning()) {
+            return false;
+        }
+
+        AtomicBoolean runCancelled = startRun();
+        // only accessed on the client thread
+        int[] merged = new int[1];
+        Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+        worker = startWorker(() -> {
+            int read = 0;
+            int step = 0;
+            try {
+                long size = Math.max(1, Files.size(file));
+                try (CountingInputStream counted = new CountingInputStream(Files.newInputStream(file));
+                     Reader reader = newReader(counted, format)) {
+                    List<ShulkerBoxData> batch = new ArrayList<>(BATCH_SIZE);
+                    RecordSource records = format == Format.JSON_LINES ? jsonRecords(reader) : csvRecords(reader);
+                    ShulkerBoxData data;
+                    while (!runCancelled.get() && (data = records.next()) != null) {
+                        batch.add(data);
+                        read++;
+                        if (batch.size() == BATCH_SIZE) {
+                            mergeBatch(client, runCancelled, pendingBatches, batch, merged);
+                            batch = new ArrayList<>(BATCH_SIZE);
+
+                            int percent = (int) Math.min(99, counted.getCount() * 100 / size);
+                            if (percent / PROGRESS_STEP > step) {
+                                step = percent / PROGRESS_STEP;
+                                report(client, runCancelled, feedback, Text.literal("Import " + percent + "% done"));
+                            }
+                        }
+                    }
+                    mergeBatch(client, runCancelled, pendingBatches, batch, merged);
+                }
+                // wait until every batch is merged, so the count is complete
+                pendingBatches.acquire(MAX_PENDING_BATCHES);
+
+                int total = read;
+                client.execute(() -> {
+                    if (!runCancelled.get()) {
+                        worker = null;
+                        feedback.accept(Text.literal("Imported " + total + " records, " + merged[0]
+                                + " added or updated, " + (total - merged[0]) + " already up to date."));
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                finish(client, runCancelled, feedback, Text.literal("Import failed: " + e.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finish(client, runCancelled, feedback, Text.literal("Import interrupted"));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stop a running export or import. Records already imported are kept, a partly written export
+     * file is left behind.
+     *
+     * @return False if nothing was running
+     */
+    public boolean cancel() {
+        if (!isRunning()) {
+            return false;
+        }
+        cancelled.set(true);
+        worker = null;
+        return true;
+    }
+
+    private AtomicBoolean startRun() {
+        AtomicBoolean runCancelled = new AtomicBoolean();
+        cancelled = runCancelled;
+        return runCancelled;
+    }
+
+    private static Thread startWorker(Runnable task) {
+        Thread thread = new Thread(task, "WhereIsMyShulker-Exchange");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Hand a batch to the client thread. Waits while too many batches are still waiting to be merged,
+     * so a file that is read faster than it is merged doesn't pile up in the client's task queue or
+     * in the pending changes of partitions that are still loading.
+     */
+    private static void mergeBatch(MinecraftClient client, AtomicBoolean runCancelled, Semaphore pendingBatches,
+                                   List<ShulkerBoxData> batch, int[] merged) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        pendingBatches.acquire();
+        client.execute(() -> {
+            CompletableFuture<Integer> merge = runCancelled.get() ? CompletableFuture.completedFuture(0)
+                    : ShulkerBoxTracker.getInstance().mergeImported(batch);
+            // completes on the client thread, once the partitions of the batch are loaded
+            merge.whenComplete((count, error) -> {
+                if (error != null) {
+                    error.printStackTrace();
+                } else {
+                    merged[0] += count;
+                }
+                pendingBatches.release();
+            });
+        });
+    }
+
+    private static void report(MinecraftClient client, AtomicBoolean runCancelled, Consumer<Text> feedback, Text text) {
+        client.execute(() -> {
+            if (!runCancelled.get()) {
+                feedback.accept(text);
+            }
+        });
+    }
+
+    private void finish(MinecraftClient client, AtomicBoolean runCancelled, Consumer<Text> feedback, Text text) {
+        client.execute(() -> {
+            if (!runCancelled.get()) {
+                worker = null;
+                feedback.accept(text);
+            }
+        });
+    }
+
+    private static BufferedWriter newWriter(Path file, Format format) throws IOException {
+        OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (format == Format.CSV_GZIP) {
+            out = new GZIPOutputStream(out, 65536);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+    }
+
+    private static Reader newReader(InputStream in, Format format) throws IOException {
+        if (format == Format.CSV_GZIP) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    private static RecordSource csvRecords(Reader reader) {
+        ShulkerBoxCsvCodec.Reader records = new ShulkerBoxCsvCodec.Reader(reader);
+        return () -> {
+            while (records.nextRecord() >= 0) {
+                ShulkerBoxData data = records.readShulkerBox(0);
+                if (data != null) {
+                    return data;
+                }
+            }
+            return null;
+        };
+    }
+
+    private static RecordSource jsonRecords(Reader reader) {
+        BufferedReader lines = new BufferedReader(reader, 65536);
+        return () -> {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                ShulkerBoxData data = ShulkerBoxJsonCodec.fromJson(line);
+                if (data != null) {
+                    return data;
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Decodes one record after another, skipping invalid ones.
+     */
+    private interface RecordSource {
+        /**
+         * @return The next valid record, or null at the end of the input
+         */
+        ShulkerBoxData next() throws IOException;
+    }
+
+    /**
+     * Counts the bytes read from the file, used for progress of compressed files too.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
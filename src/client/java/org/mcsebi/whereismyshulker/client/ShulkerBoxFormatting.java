@@ -0,0 +1,225 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Chat formatting of tracked shulker boxes, shared by all commands that list them.
+ * <p>
+ * The parts of a line that don't depend on the player (name, clickable coordinates, dimension) are
+ * cached per shulker box, so paging through a list only builds the distance and direction again.
+ * Only used on the client thread.
+ */
+public final class ShulkerBoxFormatting {
+    // enough for a few pages of every list, least recently used entries are dropped first
+    private static final int MAX_CACHED_LINES = 512;
+
+    private static final Map<LineKey, CachedLine> LINE_CACHE = new LinkedHashMap<>(MAX_CACHED_LINES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LineKey, CachedLine> eldest) {
+            return size() > MAX_CACHED_LINES;
+        }
+    };
+
+    private ShulkerBoxFormatting() {
+    }
+
+    /**
+     * Build the chat line for a single shulker box.
+     *
+     * @param boxNumber Number shown in front of the entry
+     * @param data Shulker box data
+     * @param playerPos Current player position
+     * @param playerDim Current player dimension
+     * @return Formatted chat line
+     */
+    public static MutableText formatShulkerBoxLine(int boxNumber, ShulkerBoxData data, BlockPos playerPos, String playerDim) {
+        CachedLine cached = getCachedLine(data);
+
+        // generate info about dimension, distance and direction
+        Text dimensionInfo;
+        Text distanceInfo;
+        if(data.getDimension().equals(playerDim)) {
+            // same dimension - show distance and direction
+            dimensionInfo = Text.literal("");
+
+            double horizontalDistance = getHorizontalDistance(playerPos, data.getPosition());
+            String direction = getDirection(playerPos, data.getPosition());
+            int verticalDistance = Math.abs(playerPos.getY() - data.getPosition().getY());
+            String belowOrAbove = data.getPosition().getY() < playerPos.getY() ? "v" : "^";
+
+            distanceInfo = Text.literal(String.format(" [%d %s, %d %s]", (int)horizontalDistance, direction, verticalDistance, belowOrAbove))
+                    .formatted(Formatting.DARK_GRAY);
+
+        } else {
+            // different dimension - show dimension only
+            dimensionInfo = cached.dimensionInfo();
+
+            distanceInfo = Text.literal("").formatted(Formatting.DARK_GRAY);
+        }
+
+        return Text.literal(boxNumber + ". ").formatted(Formatting.WHITE)
+                .append(cached.nameAndCoords())
+                .append(dimensionInfo)
+                .append(distanceInfo);
+    }
+
+    /**
+     * Get the cached parts of the line of a shulker box, building them if the box isn't cached or
+     * changed since.
+     *
+     * @param data Shulker box data
+     * @return Parts of the line that don't depend on the player
+     */
+    private static CachedLine getCachedLine(ShulkerBoxData data) {
+        LineKey key = new LineKey(data.getDimension(), data.getPosition().asLong());
+        CachedLine cached = LINE_CACHE.get(key);
+        if (cached != null && cached.matches(data)) {
+            return cached;
+        }
+
+        String shulkerName = data.getColor() + " Shulker Box";
+        if(data.hasCustomName()) {
+            shulkerName = data.getCustomName();
+        }
+        shulkerName = shulkerName.trim();
+
+        Text nameAndCoords = Text.empty()
+                .append(Text.literal(shulkerName).formatted(getColorFormatting(data.getColor())))
+                .append(Text.literal(" (").formatted(Formatting.GRAY))
+                .append(createClickableCoords(data))
+                .append(Text.literal(") ").formatted(Formatting.GRAY));
+        Text dimensionInfo = Text.literal("(").formatted(Formatting.GRAY)
+                .append(Text.literal(formatDimension(data.getDimension()).formatted(Formatting.WHITE))
+                        .append(Text.literal(")").formatted(Formatting.GRAY)));
+
+        cached = new CachedLine(data.getTimestamp(), data.getColor(), data.getCustomName(), nameAndCoords, dimensionInfo);
+        LINE_CACHE.put(key, cached);
+        return cached;
+    }
+
+    private record LineKey(String dimension, long packedPos) {
+    }
+
+    /**
+     * Player independent parts of a line, with the values they were built from.
+     */
+    private record CachedLine(long timestamp, String color, String customName, Text nameAndCoords, Text dimensionInfo) {
+        boolean matches(ShulkerBoxData data) {
+            return timestamp == data.getTimestamp()
+                    && Objects.equals(color, data.getColor())
+                    && Objects.equals(customName, data.getCustomName());
+        }
+    }
+
+    /**
+     * Create clickable coordinates text component.
+     *
+     * @param data Shulker box data
+     * @return Clickable text component with coordinates
+     */
+    public static MutableText createClickableCoords(ShulkerBoxData data) {
+        BlockPos pos = data.getPosition();
+
+        String coords = pos.getX() + ", " + pos.getY() + ", " + pos.getZ();
+        String cmd = "/tp @s " + pos.getX() + " " + pos.getY() + " " + pos.getZ();
+
+        return Text.literal(coords)
+                .formatted(Formatting.GREEN)
+                .styled(style -> style
+                        .withClickEvent(new ClickEvent.SuggestCommand(cmd))
+                        .withHoverEvent(new HoverEvent.ShowText(Text.literal("Click to teleport")))
+                );
+    }
+
+    /**
+     * Get the Minecraft Formatting color for the given color name.
+     *
+     * @param color Color name
+     * @return Formatting color
+     */
+    public static Formatting getColorFormatting(String color) {
+        return switch (color.toLowerCase()) {
+            case "white" -> Formatting.WHITE;
+            case "orange" -> Formatting.GOLD;
+            case "magenta" -> Formatting.LIGHT_PURPLE;
+            case "light blue" -> Formatting.AQUA;
+            case "yellow" -> Formatting.YELLOW;
+            case "lime" -> Formatting.GREEN;
+            case "pink" -> Formatting.LIGHT_PURPLE;
+            case "gray" -> Formatting.DARK_GRAY;
+            case "light gray" -> Formatting.GRAY;
+            case "cyan" -> Formatting.DARK_AQUA;
+            case "purple" -> Formatting.DARK_PURPLE;
+            case "blue" -> Formatting.BLUE;
+            case "brown" -> Formatting.GOLD;
+            case "green" -> Formatting.DARK_GREEN;
+            case "red" -> Formatting.RED;
+            case "black" -> Formatting.BLACK;
+            default -> Formatting.LIGHT_PURPLE;
+        };
+    }
+
+    /**
+     * Get cardinal direction from one position to another.
+     *
+     * @param from First position
+     * @param to Second position
+     * @return Direction as string (N, NE, E, SE, S, SW, W, NW)
+     */
+    public static String getDirection(BlockPos from, BlockPos to) {
+        double dx = to.getX() - from.getX();
+        double dz = to.getZ() - from.getZ();
+        double angle = Math.toDegrees(Math.atan2(-dx, dz));
+        if (angle < 0) angle += 360;
+
+        if (angle >= 337.5 || angle < 22.5) return "S";
+        if (angle >= 22.5 && angle < 67.5) return "SW";
+        if (angle >= 67.5 && angle < 112.5) return "W";
+        if (angle >= 112.5 && angle < 157.5) return "NW";
+        if (angle >= 157.5 && angle < 202.5) return "N";
+        if (angle >= 202.5 && angle < 247.5) return "NE";
+        if (angle >= 247.5 && angle < 292.5) return "E";
+        if (angle >= 292.5 && angle < 337.5) return "SE";
+
+        return "Unknown";
+    }
+
+    /**
+     * Calculate horizontal distance between two BlockPos.
+     *
+     * @param from First position
+     * @param to Second position
+     * @return Horizontal distance
+     */
+    public static double getHorizontalDistance(BlockPos from, BlockPos to) {
+        double dx = to.getX() - from.getX();
+        double dz = to.getZ() - from.getZ();
+        return Math.sqrt(dx * dx + dz * dz);
+    }
+
+    /**
+     * Format dimension string to a more user-friendly name.
+     *
+     * @param dimension Dimension identifier
+     * @return Formatted dimension name
+     */
+    public static String formatDimension(String dimension) {
+        if (dimension.contains("overworld")) {
+            return "Overworld";
+        } else if (dimension.contains("the_nether")) {
+            return "Nether";
+        } else if (dimension.contains("the_end")) {
+            return "End";
+        }
+        return dimension;
+    }
+}
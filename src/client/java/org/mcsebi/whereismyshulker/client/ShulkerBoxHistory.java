@@ -0,0 +1,519 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time-ordered history of placed and removed shulker boxes of one world.
+ * <p>
+ * New events go to the active segment, which is kept in memory and appended to {@code active.log}.
+ * Once it holds {@link #SEGMENT_EVENTS} events it is sealed: compressed into an archive segment
+ * named {@code <first>_<last>_<count>.seg} after the time range and number of its events, and the log
+ * starts over. The archive directory is known from the file names alone, so a time range query
+ * binary-searches the directory and only decompresses the segments overlapping the range.
+ * <p>
+ * The archive is capped at a configurable size, the oldest segments are deleted first. All files
+ * are written on the IO thread, see {@link ShulkerBoxPersistence#runInBackground(Runnable)}, and
+ * queries read the archive there too. Only used on the client thread otherwise.
+ */
+public class ShulkerBoxHistory {
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private static final int SEGMENT_EVENTS = 1024;
+    private static final int FORMAT_VERSION = 1;
+    private static final String ACTIVE_LOG = "active.log";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String SETTINGS_FILE = "history.properties";
+    private static final String MAX_BYTES_KEY = "maxBytes";
+
+    /**
+     * What happened to a shulker box.
+     */
+    public enum Type {
+        PLACED,
+        REMOVED
+    }
+
+    /**
+     * One placement or removal.
+     *
+     * @param timestamp When it happened, milliseconds since the epoch
+     * @param type Placement or removal
+     * @param box The shulker box as it was tracked at that time
+     */
+    public record Event(long timestamp, Type type, ShulkerBoxData box) {
+    }
+
+    /**
+     * Events of a time range, newest first, and how many there are in total.
+     *
+     * @param events The events on the requested page
+     * @param totalCount Number of events in the whole range
+     */
+    public record Page(List<Event> events, int totalCount) {
+        public int pageCount(int pageSize) {
+            return (totalCount + pageSize - 1) / pageSize;
+        }
+    }
+
+    private final Path directory;
+    private final List<Event> active = new ArrayList<>();
+    // archive segments, oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    private long archiveBytes;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    // runs the file writes on the IO thread
+    private Executor writer = ShulkerBoxPersistence::runInBackground;
+
+    private ShulkerBoxHistory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open the history stored in a directory, reading the archive directory and the active segment.
+     * Reads files, so it runs on the IO thread.
+     *
+     * @param directory History directory, created when the first event is written
+     * @return The history
+     */
+    public static ShulkerBoxHistory open(Path directory) {
+        ShulkerBoxHistory history = new ShulkerBoxHistory(directory);
+        history.load();
+        return history;
+    }
+
+    /**
+     * Add events to the history stored in a directory without keeping it open, e.g. the events that
+     * happened while it was still being opened when the world is left. Runs on the IO thread and
+     * writes right away.
+     *
+     * @param directory History directory
+     * @param events Events in the order they happened
+     */
+    public static void appendAll(Path directory, List<Event> events) {
+        ShulkerBoxHistory history = open(directory);
+        // already on the IO thread
+        history.writer = Runnable::run;
+        for (Event event : events) {
+            history.record(event.type(), event.box(), event.timestamp());
+        }
+    }
+
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        Properties settings = new Properties();
+        Path settingsFile = directory.resolve(SETTINGS_FILE);
+        if (Files.exists(settingsFile)) {
+            try (InputStream in = Files.newInputStream(settingsFile)) {
+                settings.load(in);
+                maxBytes = Long.parseLong(settings.getProperty(MAX_BYTES_KEY, Long.toString(DEFAULT_MAX_BYTES)));
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Segment segment = Segment.ofFile(file);
+                if (segment != null) {
+                    segments.add(segment);
+                    archiveBytes += segment.bytes;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        segments.sort((a, b) -> Long.compare(a.first, b.first));
+
+        Path log = directory.resolve(ACTIVE_LOG);
+        if (Files.exists(log)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+                while (true) {
+                    active.add(readEvent(in));
+                }
+            } catch (EOFException e) {
+                // end of the log, or a torn last event
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!segments.isEmpty()) {
+            // the log of a sealed segment is deleted after the segment is written, a crash in between leaves both
+            long sealed = segments.get(segments.size() - 1).last;
+            active.removeIf(event -> event.timestamp() <= sealed);
+        }
+    }
+
+    /**
+     * Record an event now. Timestamps never go backwards, so the segments stay ordered even if the
+     * system clock does.
+     *
+     * @param type Placement or removal
+     * @param box The shulker box
+     */
+    public void record(Type type, ShulkerBoxData box) {
+        record(type, box, System.currentTimeMillis());
+    }
+
+    /**
+     * Record an event that happened a moment ago, e.g. while the history was still being opened.
+     *
+     * @param type Placement or removal
+     * @param box The shulker box
+     * @param time When it happened, milliseconds since the epoch, moved forward if older than the last event
+     */
+    public void record(Type type, ShulkerBoxData box, long time) {
+        long timestamp = time;
+        if (!active.isEmpty()) {
+            timestamp = Math.max(timestamp, active.get(active.size() - 1).timestamp());
+        } else if (!segments.isEmpty()) {
+            // strictly later, loading tells sealed events from newer ones by time
+            timestamp = Math.max(timestamp, segments.get(segments.size() - 1).last + 1);
+        }
+        Event event = new Event(timestamp, type, box);
+        active.add(event);
+
+        byte[] record = encode(List.of(event), false);
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(directory);
+                Files.write(directory.resolve(ACTIVE_LOG), record, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        if (active.size() >= SEGMENT_EVENTS) {
+            seal();
+        }
+    }
+
+    /**
+     * Compress the active segment into an archive segment and drop the oldest segments if the
+     * archive got too large.
+     */
+    private void seal() {
+        List<Event> events = List.copyOf(active);
+        active.clear();
+
+        byte[] compressed = encode(events, true);
+        Segment segment = new Segment(directory.resolve(events.get(0).timestamp() + "_"
+                + events.get(events.size() - 1).timestamp() + "_" + events.size() + SEGMENT_EXTENSION),
+                events.get(0).timestamp(), events.get(events.size() - 1).timestamp(), events.size(), compressed.length);
+        // readable from memory until it is on disk
+        segment.pending = compressed;
+        segments.add(segment);
+        archiveBytes += segment.bytes;
+
+        List<Path> expired = enforceLimit();
+        writer.execute(() -> {
+            try {
+                Path tmp = segment.path.resolveSibling(segment.path.getFileName() + ".tmp");
+                Files.write(tmp, compressed);
+                Files.move(tmp, segment.path, StandardCopyOption.REPLACE_EXISTING);
+                // the events are in the segment now, the log starts over
+                Files.deleteIfExists(directory.resolve(ACTIVE_LOG));
+                segment.pending = null;
+                for (Path path : expired) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Drop the oldest segments until the archive fits into the size limit.
+     *
+     * @return Files of the dropped segments, to delete on the IO thread
+     */
+    private List<Path> enforceLimit() {
+        List<Path> expired = new ArrayList<>();
+        // the newest segment is always kept
+        while (archiveBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.remove(0);
+            archiveBytes -= oldest.bytes;
+            expired.add(oldest.path);
+        }
+        return expired;
+    }
+
+    /**
+     * @return Maximum size of the archive segments in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Current size of the archive segments in bytes
+     */
+    public long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    /**
+     * Change the size limit of the archive, dropping the oldest segments right away if necessary.
+     *
+     * @param bytes Maximum size in bytes
+     */
+    public void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+        List<Path> expired = enforceLimit();
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(directory);
+                Properties settings = new Properties();
+                settings.setProperty(MAX_BYTES_KEY, Long.toString(bytes));
+                try (OutputStream out = Files.newOutputStream(directory.resolve(SETTINGS_FILE))) {
+                    settings.store(out, "Where is my Shulker history settings");
+                }
+                for (Path path : expired) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Get one page of the events since a point in time, newest first. Only the segments overlapping
+     * the range are read, and of those only as many as needed to fill the page plus the oldest one
+     * for the total count. The segments are read on the IO thread.
+     *
+     * @param since Start of the range, milliseconds since the epoch
+     * @param page Page number starting at 1
+     * @param pageSize Number of events per page
+     * @return Completes on the IO thread with the events on that page and the number of events in the range
+     */
+    public CompletableFuture<Page> since(long since, int page, int pageSize) {
+        // the active segment and the list of segments change on the client thread, the query gets copies
+        List<Event> recent = List.copyOf(active.subList(lowerBound(active, since), active.size()));
+        List<Segment> archive = List.copyOf(segments);
+        return ShulkerBoxPersistence.supplyInBackground(() -> since(recent, archive, since, page, pageSize));
+    }
+
+    /**
+     * @param active Events of the active segment in the range
+     * @param segments Archive segments, oldest first
+     */
+    private static Page since(List<Event> active, List<Segment> segments, long since, int page, int pageSize) {
+        // the events of the active segment are in memory
+        int totalCount = active.size();
+
+        // first archive segment that ends at or after the start of the range
+        int low = 0;
+        int high = segments.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).last < since) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int firstSegment = low;
+        List<Event> boundary = null;
+        for (int i = firstSegment; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.first >= since) {
+                totalCount += segment.count;
+            } else {
+                // the range starts inside this segment
+                boundary = read(segment);
+                totalCount += boundary.size() - lowerBound(boundary, since);
+            }
+        }
+
+        if (page < 1) {
+            return new Page(List.of(), totalCount);
+        }
+        int skip = (page - 1) * pageSize;
+        List<Event> result = new ArrayList<>(pageSize);
+
+        // walk from the newest event backwards until the page is full
+        for (int i = active.size() - 1; i >= 0 && result.size() < pageSize; i--) {
+            if (skip > 0) {
+                skip--;
+            } else {
+                result.add(active.get(i));
+            }
+        }
+        for (int s = segments.size() - 1; s >= firstSegment && result.size() < pageSize; s--) {
+            Segment segment = segments.get(s);
+            if (segment.first >= since && skip >= segment.count) {
+                // whole segment is before the page, no need to read it
+                skip -= segment.count;
+                continue;
+            }
+            List<Event> events = s == firstSegment && boundary != null ? boundary : read(segment);
+            for (int i = events.size() - 1; i >= 0 && result.size() < pageSize; i--) {
+                if (events.get(i).timestamp() < since) {
+                    break;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    result.add(events.get(i));
+                }
+            }
+        }
+        return new Page(result, totalCount);
+    }
+
+    /**
+     * @return Index of the first event at or after the given time
+     */
+    private static int lowerBound(List<Event> events, long since) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).timestamp() < since) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static List<Event> read(Segment segment) {
+        byte[] pending = segment.pending;
+        try (InputStream in = pending != null
+                ? new ByteArrayInputStream(pending)
+                : new BufferedInputStream(Files.newInputStream(segment.path))) {
+            DataInputStream data = new DataInputStream(new GZIPInputStream(in));
+            if (data.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported history segment version");
+            }
+            int count = data.readInt();
+            List<Event> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                events.add(readEvent(data));
+            }
+            return events;
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Encode events, either as log records or as compressed segment with header.
+     */
+    private static byte[] encode(List<Event> events, boolean segment) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            OutputStream out = segment ? new GZIPOutputStream(bytes) : bytes;
+            DataOutputStream data = new DataOutputStream(out);
+            if (segment) {
+                data.writeInt(FORMAT_VERSION);
+                data.writeInt(events.size());
+            }
+            for (Event event : events) {
+                writeEvent(data, event);
+            }
+            data.close();
+        } catch (IOException e) {
+            // can't happen for an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeEvent(DataOutput out, Event event) throws IOException {
+        ShulkerBoxData box = event.box();
+        out.writeByte(event.type().ordinal());
+        out.writeLong(event.timestamp());
+        out.writeInt(box.getPosition().getX());
+        out.writeInt(box.getPosition().getY());
+        out.writeInt(box.getPosition().getZ());
+        out.writeLong(box.getTimestamp());
+        out.writeUTF(box.getDimension());
+        out.writeUTF(box.getColor());
+        out.writeUTF(box.getCustomName() != null ? box.getCustomName() : "");
+    }
+
+    private static Event readEvent(DataInput in) throws IOException {
+        int type = in.readByte();
+        if (type < 0 || type >= Type.values().length) {
+            throw new IllegalArgumentException("Unknown history event type " + type);
+        }
+        long timestamp = in.readLong();
+        BlockPos pos = new BlockPos(in.readInt(), in.readInt(), in.readInt());
+        long placed = in.readLong();
+        ShulkerBoxData box = new ShulkerBoxData(pos, in.readUTF(), in.readUTF(), placed, in.readUTF());
+        return new Event(timestamp, Type.values()[type], box);
+    }
+
+    /**
+     * An archive segment, described by its file name.
+     */
+    private static final class Segment {
+        final Path path;
+        final long first;
+        final long last;
+        final int count;
+        final long bytes;
+        // compressed events while the file is being written
+        volatile byte[] pending;
+
+        Segment(Path path, long first, long last, int count, long bytes) {
+            this.path = path;
+            this.first = first;
+            this.last = last;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The segment stored in a file, or null if the file isn't a segment
+         */
+        static Segment ofFile(Path file) {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(SEGMENT_EXTENSION)) {
+                return null;
+            }
+            String[] parts = name.substring(0, name.length() - SEGMENT_EXTENSION.length()).split("_");
+            try {
+                if (parts.length == 3) {
+                    return new Segment(file, Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                            Integer.parseInt(parts[2]), Files.size(file));
+                }
+            } catch (NumberFormatException | IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Insertion-ordered store of tracked shulker boxes with constant time lookup by position.
+ * <p>
+ * Entries are stored column-wise in primitive arrays (one slot per entry), dimension, color and name
+ * are kept as codes into deduplicated string tables. {@link ShulkerBoxData} instances are only
+ * created as short-lived views when an entry is read.
+ * <p>
+ * Every dimension has its own primitive map from {@code BlockPos.asLong()} to a slot, the slot
+ * order is the order in which boxes were placed. Removing a box leaves an empty slot behind, the
+ * columns are compacted once more than half of them is empty. A Fenwick tree over the occupied
+ * slots finds the n-th entry in logarithmic time even when there are empty slots.
+ * <p>
+ * Contents of opened shulker boxes are kept as an object column (null if a box was never opened),
+ * with an inverted index from item ids to slots, see {@link ShulkerBoxItemIndex}.
+ * <p>
+ * The slots are also kept sorted by age, color and name ({@link ShulkerBoxOrderIndex}), updated with
+ * every added and removed entry, so a page of a sorted list only reads as many entries as it shows.
+ * <p>
+ * A detached index ({@link #detached()}) only keeps the columns and position maps. It is used to read
+ * a partition from disk just to select a few entries, see {@link #select}, without building the
+ * chunk buckets, search indices and orders that the selection doesn't need.
+ */
+public class ShulkerBoxIndex {
+    private static final int MIN_COMPACT_SLOTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private final Map<String, Long2IntOpenHashMap> positions = new HashMap<>();
+    // false for detached indices, which leave the chunk grid, search indices and orders empty
+    private final boolean indexed;
+    private final ShulkerBoxChunkGrid chunkGrid = new ShulkerBoxChunkGrid();
+    private final ShulkerBoxNameIndex nameIndex = new ShulkerBoxNameIndex();
+    private final ShulkerBoxItemIndex itemIndex = new ShulkerBoxItemIndex();
+    private final Map<ShulkerBoxSortOrder, ShulkerBoxOrderIndex> orders = new EnumMap<>(ShulkerBoxSortOrder.class);
+
+    private final ShulkerBoxStringTable dimensionTable = new ShulkerBoxStringTable();
+    private final ShulkerBoxStringTable colorTable = new ShulkerBoxStringTable();
+    private final ShulkerBoxStringTable nameTable = new ShulkerBoxStringTable();
+
+    // columns, a dimension code of EMPTY marks an empty slot
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] zs = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] dimensions = new int[INITIAL_CAPACITY];
+    private int[] colors = new int[INITIAL_CAPACITY];
+    private int[] names = new int[INITIAL_CAPACITY];
+    private ShulkerBoxContents[] contents = new ShulkerBoxContents[INITIAL_CAPACITY];
+
+    // 1-based Fenwick tree counting occupied slots
+    private int[] liveTree = new int[INITIAL_CAPACITY + 1];
+    private int slotCount;
+    private int size;
+    private final List<ShulkerBoxData> newestFirst = new NewestFirstView();
+
+    public ShulkerBoxIndex() {
+        this(true);
+    }
+
+    private ShulkerBoxIndex(boolean indexed) {
+        this.indexed = indexed;
+        Arrays.fill(dimensions, EMPTY);
+        if (!indexed) {
+            return;
+        }
+
+        // slot comparators matching ShulkerBoxSortOrder, ties are broken by slot to keep slots distinct
+        IntComparator newestFirst = (a, b) -> {
+            int result = Long.compare(timestamps[b], timestamps[a]);
+            return result != 0 ? result : Integer.compare(b, a);
+        };
+        orders.put(ShulkerBoxSortOrder.AGE, new ShulkerBoxOrderIndex(newestFirst));
+        orders.put(ShulkerBoxSortOrder.COLOR, new ShulkerBoxOrderIndex((a, b) -> {
+            int result = colors[a] == colors[b] ? 0
+                    : ShulkerBoxSortOrder.compareColors(colorTable.get(colors[a]), colorTable.get(colors[b]));
+            return result != 0 ? result : newestFirst.compare(a, b);
+        }));
+        orders.put(ShulkerBoxSortOrder.NAME, new ShulkerBoxOrderIndex((a, b) -> {
+            int result = names[a] == names[b] ? 0
+                    : ShulkerBoxSortOrder.compareNames(nameTable.get(names[a]), nameTable.get(names[b]));
+            return result != 0 ? result : newestFirst.compare(a, b);
+        }));
+    }
+
+    /**
+     * @return An index without chunk buckets, search indices and orders, only to be read with
+     * {@link #select}, {@link #forEach} and lookups by position
+     */
+    public static ShulkerBoxIndex detached() {
+        return new ShulkerBoxIndex(false);
+    }
+
+    /**
+     * Add a shulker box, replacing any box tracked at the same position in the same dimension.
+     * The new entry becomes the most recent one.
+     *
+     * @param data Shulker box to add
+     * @return The replaced shulker box, or null if the position was free
+     */
+    public ShulkerBoxData put(ShulkerBoxData data) {
+        BlockPos pos = data.getPosition();
+        return put(pos.getX(), pos.getY(), pos.getZ(), data.getTimestamp(),
+                data.getDimension(), data.getColor(), data.getCustomName(), data.getContents());
+    }
+
+    /**
+     * Add a shulker box without creating a {@link ShulkerBoxData} first, see {@link #put(ShulkerBoxData)}.
+     *
+     * @return The replaced shulker box, or null if the position was free
+     */
+    public ShulkerBoxData put(int x, int y, int z, long timestamp, String dimension, String color, String customName) {
+        return put(x, y, z, timestamp, dimension, color, customName, null);
+    }
+
+    /**
+     * Add a shulker box with known contents, see {@link #put(ShulkerBoxData)}.
+     *
+     * @param boxContents Contents of the box, null if unknown
+     * @return The replaced shulker box, or null if the position was free
+     */
+    public ShulkerBoxData put(int x, int y, int z, long timestamp, String dimension, String color, String customName,
+                              ShulkerBoxContents boxContents) {
+        Long2IntOpenHashMap dimensionMap = positions.computeIfAbsent(dimension, k -> newDimensionMap());
+        long key = BlockPos.asLong(x, y, z);
+
+        ShulkerBoxData previous = null;
+        int oldSlot = dimensionMap.get(key);
+        if (oldSlot >= 0) {
+            previous = view(oldSlot);
+            clearSlot(oldSlot);
+        } else if (indexed) {
+            chunkGrid.add(dimension, key);
+        }
+
+        if (slotCount == dimensions.length) {
+            grow();
+        }
+        int slot = slotCount++;
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+        timestamps[slot] = timestamp;
+        dimensions[slot] = dimensionTable.acquire(dimension);
+        colors[slot] = colorTable.acquire(color);
+        names[slot] = nameTable.acquire(customName);
+        contents[slot] = boxContents;
+        if (indexed) {
+            nameIndex.add(names[slot], customName, slot);
+            itemIndex.add(boxContents, slot);
+            for (ShulkerBoxOrderIndex order : orders.values()) {
+                order.add(slot);
+            }
+        }
+        treeAdd(slot, 1);
+        dimensionMap.put(key, slot);
+        size++;
+
+        if (previous != null) {
+            compactIfNeeded();
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the shulker box at the given position.
+     *
+     * @param dimension Dimension identifier
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @return The removed shulker box, or null if none was tracked there
+     */
+    public ShulkerBoxData remove(String dimension, long packedPos) {
+        Long2IntOpenHashMap dimensionMap = positions.get(dimension);
+        if (dimensionMap == null) {
+            return null;
+        }
+
+        int slot = dimensionMap.remove(packedPos);
+        if (slot < 0) {
+            return null;
+        }
+
+        ShulkerBoxData removed = view(slot);
+        clearSlot(slot);
+        if (indexed) {
+            chunkGrid.remove(dimension, packedPos);
+        }
+        compactIfNeeded();
+        return removed;
+    }
+
+    /**
+     * Replace the contents of a tracked shulker box.
+     *
+     * @param dimension Dimension identifier
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @param boxContents New contents
+     * @return True if a shulker box is tracked there and its contents changed
+     */
+    public boolean setContents(String dimension, long packedPos, ShulkerBoxContents boxContents) {
+        Long2IntOpenHashMap dimensionMap = positions.get(dimension);
+        int slot = dimensionMap != null ? dimensionMap.get(packedPos) : -1;
+        if (slot < 0 || Objects.equals(contents[slot], boxContents)) {
+            return false;
+        }
+        if (indexed) {
+            itemIndex.remove(contents[slot], slot);
+            itemIndex.add(boxContents, slot);
+        }
+        contents[slot] = boxContents;
+        return true;
+    }
+
+    /**
+     * Remove the shulker boxes at the given position in every dimension.
+     *
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @return True if anything was removed
+     */
+    public boolean removeInAllDimensions(long packedPos) {
+        boolean removed = false;
+        for (String dimension : new ArrayList<>(positions.keySet())) {
+            removed |= remove(dimension, packedPos) != null;
+        }
+        return removed;
+    }
+
+    /**
+     * Get the shulker box at the given position.
+     *
+     * @param dimension Dimension identifier
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @return The tracked shulker box, or null if there is none
+     */
+    public ShulkerBoxData get(String dimension, long packedPos) {
+        Long2IntOpenHashMap dimensionMap = positions.get(dimension);
+        if (dimensionMap == null) {
+            return null;
+        }
+        int slot = dimensionMap.get(packedPos);
+        return slot >= 0 ? view(slot) : null;
+    }
+
+    public boolean contains(String dimension, long packedPos) {
+        Long2IntOpenHashMap dimensionMap = positions.get(dimension);
+        return dimensionMap != null && dimensionMap.containsKey(packedPos);
+    }
+
+    /**
+     * Find the shulker boxes closest to a point, by horizontal distance.
+     *
+     * @param dimension Dimension identifier
+     * @param center Point to search from
+     * @param k Maximum number of results
+     * @param radius Maximum horizontal distance in blocks
+     * @return Shulker boxes, closest first
+     */
+    public List<ShulkerBoxData> nearest(String dimension, BlockPos center, int k, int radius) {
+        LongList found = chunkGrid.nearest(dimension, center, k, radius);
+        List<ShulkerBoxData> result = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            result.add(get(dimension, found.getLong(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @return Chunk buckets of all tracked positions
+     */
+    public ShulkerBoxChunkGrid getChunkGrid() {
+        return chunkGrid;
+    }
+
+    /**
+     * Find the shulker boxes whose custom name matches a search text, see {@link ShulkerBoxNameIndex}.
+     *
+     * @param query Search text
+     * @return Read-only view of the matching shulker boxes, most recent first. Entries are only created
+     * when read, so paging through many matches stays cheap. Only valid until the index is modified.
+     */
+    public List<ShulkerBoxData> searchByName(String query) {
+        IntList slots = nameIndex.search(query);
+        return new SlotListView(slots);
+    }
+
+    /**
+     * Find the opened shulker boxes that held an item the last time they were opened.
+     *
+     * @param item Item id, e.g. minecraft:diamond
+     * @return Read-only view of the matching shulker boxes, most recent first. Only valid until the
+     * index is modified.
+     */
+    public List<ShulkerBoxData> findByItem(String item) {
+        return new SlotListView(itemIndex.find(item));
+    }
+
+    /**
+     * Get the first shulker boxes in a sorted order.
+     *
+     * @param order Order other than {@link ShulkerBoxSortOrder#DISTANCE}
+     * @param limit Maximum number of shulker boxes
+     * @return Read-only view of the first shulker boxes in that order. Only valid until the index is modified.
+     */
+    public List<ShulkerBoxData> sorted(ShulkerBoxSortOrder order, int limit) {
+        ShulkerBoxOrderIndex orderIndex = orders.get(order);
+        if (orderIndex == null) {
+            throw new IllegalArgumentException("No maintained order " + order);
+        }
+        return new SlotListView(orderIndex.first(limit));
+    }
+
+    /**
+     * Select the first matching shulker boxes by looking at every entry, for detached indices that
+     * have no search indices or orders.
+     *
+     * @param filter Which shulker boxes to select
+     * @param order Order of the result, null for most recent first like {@link #newestFirst()}
+     * @param limit Maximum number of shulker boxes to return
+     * @return A copy of the first matching shulker boxes in that order, and the number of all matches
+     */
+    public Selection select(Predicate<ShulkerBoxData> filter, Comparator<ShulkerBoxData> order, int limit) {
+        int count = 0;
+        if (order == null) {
+            // later slots are more recent, keep the last matches
+            ArrayDeque<ShulkerBoxData> newest = new ArrayDeque<>();
+            for (int i = 0; i < slotCount; i++) {
+                if (dimensions[i] == EMPTY) {
+                    continue;
+                }
+                ShulkerBoxData data = view(i);
+                if (filter.test(data)) {
+                    count++;
+                    if (limit > 0) {
+                        if (newest.size() == limit) {
+                            newest.removeFirst();
+                        }
+                        newest.addLast(data);
+                    }
+                }
+            }
+            List<ShulkerBoxData> result = new ArrayList<>(newest.size());
+            newest.descendingIterator().forEachRemaining(result::add);
+            return new Selection(result, count);
+        }
+
+        // bounded heap with the last selected entry on top
+        PriorityQueue<ShulkerBoxData> first = new PriorityQueue<>(order.reversed());
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] == EMPTY) {
+                continue;
+            }
+            ShulkerBoxData data = view(i);
+            if (filter.test(data)) {
+                count++;
+                offer(first, data, order, limit);
+            }
+        }
+        return new Selection(sortedCopy(first, order), count);
+    }
+
+    /**
+     * Select the first shulker boxes of a list in another order, e.g. matches of the search indices,
+     * which are listed in insertion order.
+     *
+     * @param candidates Shulker boxes to select from
+     * @param order Order of the result
+     * @param limit Maximum number of shulker boxes to return
+     * @return A copy of the first shulker boxes in that order, and the number of candidates
+     */
+    public static Selection select(List<ShulkerBoxData> candidates, Comparator<ShulkerBoxData> order, int limit) {
+        PriorityQueue<ShulkerBoxData> first = new PriorityQueue<>(order.reversed());
+        for (ShulkerBoxData data : candidates) {
+            offer(first, data, order, limit);
+        }
+        return new Selection(sortedCopy(first, order), candidates.size());
+    }
+
+    /**
+     * Keep an entry in a bounded heap of the first entries if it belongs there.
+     */
+    private static void offer(PriorityQueue<ShulkerBoxData> first, ShulkerBoxData data, Comparator<ShulkerBoxData> order,
+                              int limit) {
+        if (first.size() < limit) {
+            first.add(data);
+        } else if (limit > 0 && order.compare(data, first.peek()) < 0) {
+            first.poll();
+            first.add(data);
+        }
+    }
+
+    private static List<ShulkerBoxData> sortedCopy(PriorityQueue<ShulkerBoxData> first, Comparator<ShulkerBoxData> order) {
+        List<ShulkerBoxData> result = new ArrayList<>(first);
+        result.sort(order);
+        return result;
+    }
+
+    /**
+     * Remove all shulker boxes matching the filter.
+     *
+     * @param filter Filter deciding which shulker boxes to remove
+     * @return True if anything was removed
+     */
+    public boolean removeIf(Predicate<ShulkerBoxData> filter) {
+        boolean removed = false;
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] == EMPTY) {
+                continue;
+            }
+            ShulkerBoxData data = view(i);
+            if (filter.test(data)) {
+                long packedPos = BlockPos.asLong(xs[i], ys[i], zs[i]);
+                positions.get(data.getDimension()).remove(packedPos);
+                if (indexed) {
+                    chunkGrid.remove(data.getDimension(), packedPos);
+                }
+                clearSlot(i);
+                removed = true;
+            }
+        }
+        compactIfNeeded();
+        return removed;
+    }
+
+    public void clear() {
+        positions.clear();
+        chunkGrid.clear();
+        nameIndex.clear();
+        itemIndex.clear();
+        for (ShulkerBoxOrderIndex order : orders.values()) {
+            order.clear();
+        }
+        Arrays.fill(contents, 0, slotCount, null);
+        dimensionTable.clear();
+        colorTable.clear();
+        nameTable.clear();
+        Arrays.fill(dimensions, 0, slotCount, EMPTY);
+        Arrays.fill(liveTree, 0);
+        slotCount = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param dimension Dimension identifier
+     * @return Number of shulker boxes in that dimension
+     */
+    public int size(String dimension) {
+        Long2IntOpenHashMap dimensionMap = positions.get(dimension);
+        return dimensionMap != null ? dimensionMap.size() : 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get a shulker box by its position in insertion order.
+     *
+     * @param index Index between 0 (oldest) and size - 1 (newest)
+     * @return The shulker box at that index
+     */
+    public ShulkerBoxData get(int index) {
+        Objects.checkIndex(index, size);
+        if (size == slotCount) {
+            // no empty slots, index maps directly
+            return view(index);
+        }
+        return view(slotOfRank(index));
+    }
+
+    /**
+     * @return Read-only live view of all shulker boxes, most recent first. Nothing is copied,
+     * sublists of this view can be used for paging.
+     */
+    public List<ShulkerBoxData> newestFirst() {
+        return newestFirst;
+    }
+
+    /**
+     * Visit all shulker boxes in insertion order.
+     *
+     * @param action Action to run for every shulker box
+     */
+    public void forEach(Consumer<ShulkerBoxData> action) {
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] != EMPTY) {
+                action.accept(view(i));
+            }
+        }
+    }
+
+    /**
+     * @return Unmodifiable copy of all shulker boxes in insertion order
+     */
+    public List<ShulkerBoxData> toList() {
+        List<ShulkerBoxData> list = new ArrayList<>(size);
+        forEach(list::add);
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Estimate how much heap this index retains, compared to keeping one {@link ShulkerBoxData}
+     * object (with its own BlockPos and String copies, as created by CSV parsing) per entry.
+     * Assumes a 64-bit JVM with compressed object pointers.
+     *
+     * @return Memory report
+     */
+    public MemoryReport getMemoryReport() {
+        long capacity = dimensions.length;
+        long columnBytes = capacity * (4 * 3 + 8 + 4 * 3 + 4) + liveTree.length * 4L;
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] != EMPTY && contents[i] != null) {
+                // object + two arrays, item id strings are shared
+                columnBytes += 16 + 2 * 16 + contents[i].size() * 8L;
+            }
+        }
+
+        // open hash maps: long key + int value per bucket at load factor 0.75, plus chunk grid buckets
+        long indexBytes = (long) (size / 0.75) * (8 + 4) + size * 8L + nameIndex.estimateHeapBytes()
+                + itemIndex.estimateHeapBytes();
+        for (ShulkerBoxOrderIndex order : orders.values()) {
+            indexBytes += order.estimateHeapBytes();
+        }
+
+        long stringBytes = dimensionTable.estimateHeapBytes()
+                + colorTable.estimateHeapBytes()
+                + nameTable.estimateHeapBytes();
+
+        long objectBytes = 0;
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] == EMPTY) {
+                continue;
+            }
+            // ShulkerBoxData (40) + BlockPos (24) + list reference (4) + three String copies (24 + 16 + length)
+            objectBytes += 40 + 24 + 4 + 3 * (24 + 16)
+                    + dimensionTable.get(dimensions[i]).length()
+                    + colorTable.get(colors[i]).length()
+                    + nameTable.get(names[i]).length();
+        }
+
+        return new MemoryReport(size, columnBytes, indexBytes, stringBytes, objectBytes);
+    }
+
+    /**
+     * Create a view of the entry in a slot.
+     */
+    private ShulkerBoxData view(int slot) {
+        return new ShulkerBoxData(
+                new BlockPos(xs[slot], ys[slot], zs[slot]),
+                dimensionTable.get(dimensions[slot]),
+                colorTable.get(colors[slot]),
+                timestamps[slot],
+                nameTable.get(names[slot]),
+                contents[slot]);
+    }
+
+    private void grow() {
+        int capacity = dimensions.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        dimensions = Arrays.copyOf(dimensions, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        names = Arrays.copyOf(names, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        Arrays.fill(dimensions, slotCount, capacity, EMPTY);
+        rebuildTree();
+    }
+
+    private void compactIfNeeded() {
+        int empty = slotCount - size;
+        if (empty < MIN_COMPACT_SLOTS || empty <= size) {
+            return;
+        }
+
+        int target = 0;
+        for (int i = 0; i < slotCount; i++) {
+            if (dimensions[i] == EMPTY) {
+                continue;
+            }
+            if (target != i) {
+                xs[target] = xs[i];
+                ys[target] = ys[i];
+                zs[target] = zs[i];
+                timestamps[target] = timestamps[i];
+                dimensions[target] = dimensions[i];
+                colors[target] = colors[i];
+                names[target] = names[i];
+                contents[target] = contents[i];
+                if (indexed) {
+                    nameIndex.move(names[target], i, target);
+                    itemIndex.move(contents[target], i, target);
+                }
+                positions.get(dimensionTable.get(dimensions[target]))
+                        .put(BlockPos.asLong(xs[target], ys[target], zs[target]), target);
+            }
+            target++;
+        }
+        Arrays.fill(dimensions, target, slotCount, EMPTY);
+        Arrays.fill(contents, target, slotCount, null);
+        slotCount = target;
+        rebuildTree();
+
+        // the orders compare slot contents, which moved
+        for (ShulkerBoxOrderIndex order : orders.values()) {
+            order.clear();
+            for (int i = 0; i < slotCount; i++) {
+                order.add(i);
+            }
+        }
+    }
+
+    private void clearSlot(int slot) {
+        // before the columns are cleared, the orders compare them
+        for (ShulkerBoxOrderIndex order : orders.values()) {
+            order.remove(slot);
+        }
+        if (indexed) {
+            nameIndex.remove(names[slot], slot);
+            itemIndex.remove(contents[slot], slot);
+        }
+        contents[slot] = null;
+        dimensionTable.release(dimensions[slot]);
+        colorTable.release(colors[slot]);
+        nameTable.release(names[slot]);
+        dimensions[slot] = EMPTY;
+        treeAdd(slot, -1);
+        size--;
+    }
+
+    private void treeAdd(int slot, int delta) {
+        for (int i = slot + 1; i < liveTree.length; i += i & -i) {
+            liveTree[i] += delta;
+        }
+    }
+
+    private void rebuildTree() {
+        liveTree = new int[dimensions.length + 1];
+        for (int i = 1; i < liveTree.length; i++) {
+            if (dimensions[i - 1] != EMPTY) {
+                liveTree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent < liveTree.length) {
+                liveTree[parent] += liveTree[i];
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding the n-th occupied slot.
+     *
+     * @param rank 0-based rank among occupied slots
+     * @return Slot index
+     */
+    private int slotOfRank(int rank) {
+        int pos = 0;
+        int remaining = rank + 1;
+        for (int step = Integer.highestOneBit(liveTree.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < liveTree.length && liveTree[next] < remaining) {
+                pos = next;
+                remaining -= liveTree[next];
+            }
+        }
+        return pos;
+    }
+
+    private static Long2IntOpenHashMap newDimensionMap() {
+        Long2IntOpenHashMap map = new Long2IntOpenHashMap();
+        map.defaultReturnValue(-1);
+        return map;
+    }
+
+    /**
+     * Estimated heap usage of the index.
+     *
+     * @param entries Number of tracked shulker boxes
+     * @param columnBytes Columns including unused capacity, with the contents of opened boxes
+     * @param indexBytes Position maps, chunk buckets, name and item search indices, sorted orders
+     * @param stringBytes Deduplicated string tables
+     * @param objectBytes What the same entries would take as one object graph per entry
+     */
+    public record MemoryReport(int entries, long columnBytes, long indexBytes, long stringBytes, long objectBytes) {
+        public long totalBytes() {
+            return columnBytes + indexBytes + stringBytes;
+        }
+    }
+
+    /**
+     * The first entries selected for a page, and how many entries matched in total.
+     *
+     * @param head Selected shulker boxes
+     * @param totalCount Number of all matching shulker boxes
+     */
+    public record Selection(List<ShulkerBoxData> head, int totalCount) {
+    }
+
+    private class SlotListView extends AbstractList<ShulkerBoxData> implements RandomAccess {
+        private final IntList slots;
+
+        SlotListView(IntList slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public ShulkerBoxData get(int index) {
+            return view(slots.getInt(index));
+        }
+
+        @Override
+        public int size() {
+            return slots.size();
+        }
+    }
+
+    private class NewestFirstView extends AbstractList<ShulkerBoxData> implements RandomAccess {
+        @Override
+        public ShulkerBoxData get(int index) {
+            return ShulkerBoxIndex.this.get(size - 1 - Objects.checkIndex(index, size));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntComparators;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+/**
+ * Inverted index from item ids to the slots of the shulker boxes holding them, see
+ * {@link ShulkerBoxContents}. Updated incrementally whenever the contents of a slot change.
+ */
+public class ShulkerBoxItemIndex {
+    private final Object2ObjectOpenHashMap<String, IntOpenHashSet> slotsByItem = new Object2ObjectOpenHashMap<>();
+
+    /**
+     * Record that a slot holds the given contents.
+     *
+     * @param contents Contents of the shulker box, may be null
+     * @param slot Slot of the shulker box
+     */
+    public void add(ShulkerBoxContents contents, int slot) {
+        if (contents == null) {
+            return;
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            slotsByItem.computeIfAbsent(contents.getItem(i), k -> new IntOpenHashSet()).add(slot);
+        }
+    }
+
+    /**
+     * Record that a slot no longer holds the given contents.
+     *
+     * @param contents Previous contents of the shulker box, may be null
+     * @param slot Slot of the shulker box
+     */
+    public void remove(ShulkerBoxContents contents, int slot) {
+        if (contents == null) {
+            return;
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            String item = contents.getItem(i);
+            IntOpenHashSet slots = slotsByItem.get(item);
+            if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+                slotsByItem.remove(item);
+            }
+        }
+    }
+
+    /**
+     * Record that an entry moved to a different slot.
+     *
+     * @param contents Contents of the shulker box, may be null
+     * @param from Previous slot
+     * @param to New slot
+     */
+    public void move(ShulkerBoxContents contents, int from, int to) {
+        if (contents == null) {
+            return;
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            IntOpenHashSet slots = slotsByItem.get(contents.getItem(i));
+            if (slots != null && slots.remove(from)) {
+                slots.add(to);
+            }
+        }
+    }
+
+    public void clear() {
+        slotsByItem.clear();
+    }
+
+    /**
+     * @param item Item id, e.g. minecraft:diamond
+     * @return Slots of the shulker boxes holding the item, highest (most recent) first
+     */
+    public IntList find(String item) {
+        IntOpenHashSet slots = slotsByItem.get(item);
+        if (slots == null) {
+            return IntList.of();
+        }
+        IntArrayList sorted = new IntArrayList(slots);
+        sorted.sort(IntComparators.OPPOSITE_COMPARATOR);
+        return sorted;
+    }
+
+    /**
+     * @return Estimated heap usage in bytes
+     */
+    public long estimateHeapBytes() {
+        long bytes = 0;
+        for (IntOpenHashSet slots : slotsByItem.values()) {
+            // map slot + set + its buckets, item ids are shared with the contents
+            bytes += 16 + 48 + (long) (slots.size() / 0.75) * 4;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,277 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Append-only persistence for the tracked shulker boxes.
+ * <p>
+ * The full list lives in a binary snapshot file (shulker_boxes.bin), every change after that is
+ * appended to a checksummed write-ahead log next to it (shulker_boxes.wal). Loading reads the
+ * snapshot and replays the log on top. Once the log grows too large it is folded back into a fresh
+ * snapshot. A snapshot that fails its checksum is moved aside as .corrupt and the log is replayed
+ * on its own, so a damaged file costs at most what was in it instead of failing the whole load.
+ * <p>
+ * Earlier versions appended text lines to shulker_boxes.journal instead of the log. Such a journal
+ * is still replayed (before the log) until the next snapshot replaces it.
+ * <p>
+ * Directories from older versions only contain shulker_boxes.csv (and possibly its journal). These
+ * are migrated to the binary snapshot on the first load, the CSV file is kept as a backup.
+ * <p>
+ * Dimension partitions use the same format with their own base name, see {@link ShulkerBoxPartition}.
+ */
+public class ShulkerBoxJournal {
+    private static final String ADD = "+";
+    private static final String REMOVE = "-";
+
+    public static final String SNAPSHOT_EXTENSION = ".bin";
+    public static final String JOURNAL_EXTENSION = ".journal";
+    private static final String CORRUPT_EXTENSION = ".corrupt";
+
+    private static final String BASE_NAME = "shulker_boxes";
+    private static final String LEGACY_CSV_FILE = "shulker_boxes.csv";
+    private static final String LEGACY_JOURNAL_FILE = "shulker_boxes.csv.journal";
+
+    private final Path directory;
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ShulkerBoxWriteAheadLog log;
+    private int loadedRecords;
+    private long loadedBytes;
+
+    public ShulkerBoxJournal(Path directory) {
+        this(directory, BASE_NAME);
+    }
+
+    /**
+     * @param directory Directory holding the files
+     * @param baseName File name of snapshot and journal without extension
+     */
+    public ShulkerBoxJournal(Path directory, String baseName) {
+        this.directory = directory;
+        this.snapshotPath = directory.resolve(baseName + SNAPSHOT_EXTENSION);
+        this.journalPath = directory.resolve(baseName + JOURNAL_EXTENSION);
+        this.log = new ShulkerBoxWriteAheadLog(directory.resolve(baseName + ShulkerBoxWriteAheadLog.EXTENSION));
+    }
+
+    /**
+     * @return True if there is anything to load, including files from older versions
+     */
+    public boolean exists() {
+        return Files.exists(snapshotPath) || Files.exists(journalPath) || Files.exists(log.getPath())
+                || Files.exists(directory.resolve(LEGACY_CSV_FILE));
+    }
+
+    /**
+     * Read the snapshot and replay the journal and write-ahead log on top of it.
+     *
+     * @param boxes Index to fill, shulker boxes are added in insertion order
+     */
+    public void load(ShulkerBoxIndex boxes) {
+        long start = ShulkerBoxStats.start();
+        loadedRecords = 0;
+        loadedBytes = 0;
+
+        if (!Files.exists(snapshotPath) && Files.exists(directory.resolve(LEGACY_CSV_FILE))) {
+            migrateFromCsv(boxes);
+            ShulkerBoxStats.record(ShulkerBoxStats.Metric.LOAD, start);
+            return;
+        }
+
+        long snapshotGeneration = 0;
+        if (Files.exists(snapshotPath)) {
+            try {
+                snapshotGeneration = ShulkerBoxBinaryFormat.read(snapshotPath, boxes);
+            } catch (IOException e) {
+                e.printStackTrace();
+                boxes.clear();
+                quarantineSnapshot();
+            }
+        }
+
+        // snapshots with a log generation were written after the text journal was replaced
+        if (snapshotGeneration == 0) {
+            replayJournal(journalPath, boxes, true);
+        }
+        loadedRecords += log.replay(boxes, snapshotGeneration);
+        loadedBytes += log.getSize();
+        ShulkerBoxStats.record(ShulkerBoxStats.Metric.LOAD, start);
+    }
+
+    /**
+     * Keep an unreadable snapshot for inspection instead of overwriting it with the next compaction.
+     */
+    private void quarantineSnapshot() {
+        try {
+            Files.move(snapshotPath, snapshotPath.resolveSibling(snapshotPath.getFileName() + CORRUPT_EXTENSION),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read shulker_boxes.csv and its journal from an older version and write them as binary snapshot.
+     */
+    private void migrateFromCsv(ShulkerBoxIndex boxes) {
+        Path csvPath = directory.resolve(LEGACY_CSV_FILE);
+        Path legacyJournalPath = directory.resolve(LEGACY_JOURNAL_FILE);
+        try {
+            ShulkerBoxCsv.read(csvPath, boxes);
+            replayJournal(legacyJournalPath, boxes, false);
+
+            ShulkerBoxBinaryFormat.write(snapshotPath, boxes.toList());
+            Files.deleteIfExists(legacyJournalPath);
+            Files.move(csvPath, directory.resolve(LEGACY_CSV_FILE + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replayJournal(Path path, ShulkerBoxIndex boxes, boolean count) {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            ShulkerBoxCsvCodec.Reader records = new ShulkerBoxCsvCodec.Reader(reader);
+            while (records.nextRecord() >= 0) {
+                replay(boxes, records);
+                if (count) {
+                    loadedRecords++;
+                }
+            }
+            if (count) {
+                loadedBytes += records.charsRead();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replay(ShulkerBoxIndex boxes, ShulkerBoxCsvCodec.Reader record) {
+        if (record.fieldEquals(0, ADD)) {
+            record.readShulkerBoxInto(1, boxes);
+        } else if (record.fieldEquals(0, REMOVE)) {
+            // -,x,y,z[,dimension] - records without dimension remove the position everywhere
+            int fields = record.fieldCount();
+            if (fields != 4 && fields != 5) {
+                return;
+            }
+            try {
+                long pos = BlockPos.asLong(record.intField(1), record.intField(2), record.intField(3));
+                if (fields == 5) {
+                    boxes.remove(record.stringField(4), pos);
+                } else {
+                    boxes.removeInAllDimensions(pos);
+                }
+            } catch (NumberFormatException ignored) {
+                // skip corrupted record
+            }
+        }
+    }
+
+    /**
+     * @return Number of journal records found by the last {@link #load(ShulkerBoxIndex)}
+     */
+    public int getLoadedRecords() {
+        return loadedRecords;
+    }
+
+    /**
+     * @return Size of the journal in bytes found by the last {@link #load(ShulkerBoxIndex)}
+     */
+    public long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    /**
+     * Build the log frame for a placement.
+     *
+     * @param data The placed shulker box
+     * @return Encoded frame
+     */
+    public static byte[] addRecord(ShulkerBoxData data) {
+        return ShulkerBoxWriteAheadLog.addRecord(data);
+    }
+
+    /**
+     * Build the log frame for a removal.
+     *
+     * @param data The removed shulker box
+     * @return Encoded frame
+     */
+    public static byte[] removeRecord(ShulkerBoxData data) {
+        return ShulkerBoxWriteAheadLog.removeRecord(data);
+    }
+
+    /**
+     * Build the log frame for the contents of an opened shulker box.
+     *
+     * @param data The shulker box, with its contents
+     * @return Encoded frame
+     */
+    public static byte[] contentsRecord(ShulkerBoxData data) {
+        return ShulkerBoxWriteAheadLog.contentsRecord(data);
+    }
+
+    /**
+     * Append a batch of records to the write-ahead log with a single write and fsync.
+     *
+     * @param records Log frames in the order they happened
+     * @return Number of bytes written
+     */
+    public long append(List<byte[]> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return log.append(records);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Keep the snapshot as backup and delete the journal and log, after the data was moved somewhere else.
+     */
+    public void retire() {
+        try {
+            if (Files.exists(snapshotPath)) {
+                Files.move(snapshotPath, snapshotPath.resolveSibling(snapshotPath.getFileName() + ".bak"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(journalPath);
+            log.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write a new snapshot and discard the journal and log.
+     *
+     * @param boxes All currently tracked shulker boxes
+     * @return Number of bytes written
+     */
+    public long compact(Collection<ShulkerBoxData> boxes) {
+        try {
+            // once the snapshot is in place, the log it includes is ignored even if deleting it fails
+            long written = ShulkerBoxBinaryFormat.write(snapshotPath, boxes, log.getGeneration());
+            Files.deleteIfExists(journalPath);
+            log.reset();
+            return written;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
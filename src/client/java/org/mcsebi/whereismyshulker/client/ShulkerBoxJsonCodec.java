@@ -0,0 +1,119 @@
+package org.mcsebi.whereismyshulker.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JSON Lines codec for shulker box records, one object per line:
+ * <pre>
+ * {"x":1,"y":64,"z":-3,"dimension":"minecraft:overworld","color":"Red","timestamp":1700000000000,"name":"Tools","contents":{"minecraft:diamond":64}}
+ * </pre>
+ * Unlike CSV the records carry the contents of opened shulker boxes. {@code name} and
+ * {@code contents} are left out when empty.
+ */
+public final class ShulkerBoxJsonCodec {
+
+    private ShulkerBoxJsonCodec() {
+    }
+
+    /**
+     * Append a shulker box as JSON object (without line separator).
+     *
+     * @param out Buffer to append to
+     * @param data Shulker box to encode
+     */
+    public static void appendShulkerBox(StringBuilder out, ShulkerBoxData data) {
+        BlockPos pos = data.getPosition();
+        out.append("{\"x\":").append(pos.getX())
+                .append(",\"y\":").append(pos.getY())
+                .append(",\"z\":").append(pos.getZ())
+                .append(",\"dimension\":");
+        appendString(out, data.getDimension());
+        out.append(",\"color\":");
+        appendString(out, data.getColor());
+        out.append(",\"timestamp\":").append(data.getTimestamp());
+        if (data.hasCustomName()) {
+            out.append(",\"name\":");
+            appendString(out, data.getCustomName());
+        }
+        if (data.hasContents() && !data.getContents().isEmpty()) {
+            ShulkerBoxContents contents = data.getContents();
+            out.append(",\"contents\":{");
+            for (int i = 0; i < contents.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                appendString(out, contents.getItem(i));
+                out.append(':').append(contents.getCount(i));
+            }
+            out.append('}');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Append a JSON string literal.
+     *
+     * @param out Buffer to append to
+     * @param value String value, null is written as empty string
+     */
+    public static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> out.append("\\\"");
+                    case '\\' -> out.append("\\\\");
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    case '\t' -> out.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Decode a single JSON line.
+     *
+     * @param line JSON object
+     * @return Decoded shulker box or null if the line is invalid
+     */
+    public static ShulkerBoxData fromJson(String line) {
+        if (line.isBlank()) {
+            return null;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+            BlockPos pos = new BlockPos(json.get("x").getAsInt(), json.get("y").getAsInt(), json.get("z").getAsInt());
+            String name = json.has("name") ? json.get("name").getAsString() : "";
+
+            ShulkerBoxContents contents = null;
+            if (json.has("contents")) {
+                Map<String, Integer> items = new HashMap<>();
+                for (Map.Entry<String, JsonElement> item : json.getAsJsonObject("contents").entrySet()) {
+                    items.put(item.getKey(), item.getValue().getAsInt());
+                }
+                contents = ShulkerBoxContents.of(items);
+            }
+            return new ShulkerBoxData(pos, json.get("dimension").getAsString(), json.get("color").getAsString(),
+                    json.get("timestamp").getAsLong(), name, contents);
+        } catch (RuntimeException e) {
+            // malformed JSON, missing fields or wrong types
+            return null;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.ints.*;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Inverted index over the custom names of tracked shulker boxes.
+ * <p>
+ * Names are split into lowercase tokens at every character that is not a letter or digit, and every
+ * prefix of every token points to the name codes (see {@link ShulkerBoxStringTable}) containing it.
+ * Each name code in turn knows the slots holding it. Since many boxes share a name, the prefix map
+ * only grows with the number of distinct names, not with the number of boxes.
+ * <p>
+ * A query matches a name if every query token is a prefix of one of its tokens, so "dia ench" finds
+ * "Enchanted Diamonds".
+ */
+public class ShulkerBoxNameIndex {
+    // longer prefixes are rarely typed and only bloat the map, longer query tokens are checked on the name itself
+    private static final int MAX_PREFIX_LENGTH = 16;
+
+    private final Object2ObjectOpenHashMap<String, IntOpenHashSet> namesByPrefix = new Object2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<IntOpenHashSet> slotsByName = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<String[]> tokensByName = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Record that a slot holds a name.
+     *
+     * @param nameCode Code of the name in the name table
+     * @param name The name
+     * @param slot Slot of the shulker box
+     */
+    public void add(int nameCode, String name, int slot) {
+        IntOpenHashSet slots = slotsByName.get(nameCode);
+        if (slots == null) {
+            String[] tokens = tokenize(name);
+            if (tokens.length == 0) {
+                // unnamed boxes can't be found by name
+                return;
+            }
+            slots = new IntOpenHashSet();
+            slotsByName.put(nameCode, slots);
+            tokensByName.put(nameCode, tokens);
+            for (String token : tokens) {
+                for (int length = 1; length <= Math.min(token.length(), MAX_PREFIX_LENGTH); length++) {
+                    namesByPrefix.computeIfAbsent(token.substring(0, length), k -> new IntOpenHashSet()).add(nameCode);
+                }
+            }
+        }
+        slots.add(slot);
+    }
+
+    /**
+     * Record that a slot no longer holds a name. Must be called before the name code is released.
+     *
+     * @param nameCode Code of the name in the name table
+     * @param slot Slot of the shulker box
+     */
+    public void remove(int nameCode, int slot) {
+        IntOpenHashSet slots = slotsByName.get(nameCode);
+        if (slots == null || !slots.remove(slot) || !slots.isEmpty()) {
+            return;
+        }
+
+        // last box with this name, the code may be reused for a different name
+        slotsByName.remove(nameCode);
+        for (String token : tokensByName.remove(nameCode)) {
+            for (int length = 1; length <= Math.min(token.length(), MAX_PREFIX_LENGTH); length++) {
+                String prefix = token.substring(0, length);
+                IntOpenHashSet names = namesByPrefix.get(prefix);
+                if (names != null && names.remove(nameCode) && names.isEmpty()) {
+                    namesByPrefix.remove(prefix);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that an entry moved to a different slot.
+     *
+     * @param nameCode Code of the name in the name table
+     * @param from Previous slot
+     * @param to New slot
+     */
+    public void move(int nameCode, int from, int to) {
+        IntOpenHashSet slots = slotsByName.get(nameCode);
+        if (slots != null && slots.remove(from)) {
+            slots.add(to);
+        }
+    }
+
+    public void clear() {
+        namesByPrefix.clear();
+        slotsByName.clear();
+        tokensByName.clear();
+    }
+
+    /**
+     * Find the slots whose name matches a query.
+     *
+     * @param query Search text
+     * @return Matching slots, highest (most recent) first. Empty if the query has no tokens.
+     */
+    public IntList search(String query) {
+        String[] queryTokens = tokenize(query);
+        if (queryTokens.length == 0) {
+            return IntList.of();
+        }
+
+        // start with the rarest prefix and check the other tokens against it
+        IntOpenHashSet smallest = null;
+        for (String token : queryTokens) {
+            IntOpenHashSet names = namesByPrefix.get(token.length() > MAX_PREFIX_LENGTH ? token.substring(0, MAX_PREFIX_LENGTH) : token);
+            if (names == null) {
+                return IntList.of();
+            }
+            if (smallest == null || names.size() < smallest.size()) {
+                smallest = names;
+            }
+        }
+
+        IntArrayList slots = new IntArrayList();
+        IntIterator candidates = smallest.iterator();
+        while (candidates.hasNext()) {
+            int nameCode = candidates.nextInt();
+            if (matches(tokensByName.get(nameCode), queryTokens)) {
+                slots.addAll(slotsByName.get(nameCode));
+            }
+        }
+        slots.sort(IntComparators.OPPOSITE_COMPARATOR);
+        return slots;
+    }
+
+    /**
+     * @return Estimated heap usage in bytes
+     */
+    public long estimateHeapBytes() {
+        long bytes = 0;
+        for (String prefix : namesByPrefix.keySet()) {
+            // key String + map slot + small set
+            bytes += 40 + prefix.length() + 16 + 64;
+        }
+        for (IntOpenHashSet slots : slotsByName.values()) {
+            bytes += 48 + (long) (slots.size() / 0.75) * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param nameTokens Tokens of a name, see {@link #tokenize(String)}
+     * @param queryTokens Tokens of a search text
+     * @return True if every query token is the start of a name token
+     */
+    static boolean matches(String[] nameTokens, String[] queryTokens) {
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String nameToken : nameTokens) {
+                if (nameToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split text into distinct lowercase tokens.
+     *
+     * @param text Text to split, may be null
+     * @return Tokens, empty if the text holds no letters or digits
+     */
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new String[0];
+        }
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!tokens.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+}
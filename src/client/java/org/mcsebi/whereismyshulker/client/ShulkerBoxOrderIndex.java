@@ -0,0 +1,58 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntBidirectionalIterator;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+/**
+ * Slots of a {@link ShulkerBoxIndex} kept sorted by one of its columns, so the first page of a sorted
+ * list is read without sorting all entries.
+ * <p>
+ * The comparator looks at the columns of a slot, so a slot has to be removed before its columns are
+ * cleared and the whole order is rebuilt after the columns were compacted.
+ */
+public class ShulkerBoxOrderIndex {
+    private final IntAVLTreeSet slots;
+
+    /**
+     * @param comparator Order of two occupied slots, must not consider two different slots equal
+     */
+    public ShulkerBoxOrderIndex(IntComparator comparator) {
+        this.slots = new IntAVLTreeSet(comparator);
+    }
+
+    public void add(int slot) {
+        slots.add(slot);
+    }
+
+    public void remove(int slot) {
+        slots.remove(slot);
+    }
+
+    public void clear() {
+        slots.clear();
+    }
+
+    /**
+     * @param limit Maximum number of slots
+     * @return The first slots in this order
+     */
+    public IntList first(int limit) {
+        IntArrayList result = new IntArrayList(Math.min(limit, slots.size()));
+        IntBidirectionalIterator iterator = slots.iterator();
+        while (iterator.hasNext() && result.size() < limit) {
+            result.add(iterator.nextInt());
+        }
+        return result;
+    }
+
+    /**
+     * @return Estimated heap usage in bytes
+     */
+    public long estimateHeapBytes() {
+        // one tree node per slot: header, key, two links and balance info
+        return slots.size() * 32L;
+    }
+}
@@ -0,0 +1,172 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.fabricmc.fabric.api.client.rendering.v1.world.WorldRenderContext;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.render.Camera;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.render.VertexConsumer;
+import net.minecraft.client.render.VertexRendering;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outlines tracked shulker boxes near the player in the world.
+ * <p>
+ * The boxes to draw are taken from the tracker snapshot only when the player enters another chunk
+ * or the snapshot changes, and kept as a render list. Every frame only that list is culled against
+ * the view cone of the camera, so the cost per frame depends on the number of boxes in range and not
+ * on the size of the history.
+ */
+public class ShulkerBoxOverlay {
+    public static final int DEFAULT_RANGE = 64;
+    public static final int MAX_RANGE = 256;
+
+    // radius of the sphere around a block, used to keep partially visible boxes
+    private static final double BLOCK_RADIUS = 0.87;
+    // never cull boxes this close to the camera
+    private static final double NEAR_DISTANCE = 2.0;
+
+    private static ShulkerBoxOverlay instance;
+
+    private boolean enabled;
+    private int range = DEFAULT_RANGE;
+
+    // render list and the state it was built for
+    private final List<Marker> markers = new ArrayList<>();
+    private long cachedVersion = -1;
+    private String cachedDimension;
+    private int cachedChunkX;
+    private int cachedChunkZ;
+    private int cachedRange;
+
+    private ShulkerBoxOverlay() {
+    }
+
+    public static ShulkerBoxOverlay getInstance() {
+        if (instance == null) {
+            instance = new ShulkerBoxOverlay();
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            markers.clear();
+            cachedVersion = -1;
+        }
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    /**
+     * @param range Maximum distance of outlined shulker boxes in blocks
+     */
+    public void setRange(int range) {
+        this.range = Math.max(1, Math.min(range, MAX_RANGE));
+    }
+
+    /**
+     * Draw the outlines. Called once per frame from the world renderer.
+     *
+     * @param context World render context
+     */
+    public void render(WorldRenderContext context) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (!enabled || client.world == null || client.player == null) {
+            return;
+        }
+
+        refreshIfNeeded(client.world.getRegistryKey().getValue().toString(), client.player.getBlockPos());
+        if (markers.isEmpty()) {
+            return;
+        }
+
+        Camera camera = client.gameRenderer.getCamera();
+        Vec3d cameraPos = camera.getCameraPos();
+        Vec3d look = Vec3d.fromPolar(camera.getPitch(), camera.getYaw());
+        double halfAngle = viewConeHalfAngle(client);
+        double rangeSq = (double) range * range;
+
+        MatrixStack matrices = context.matrices();
+        VertexConsumer lines = context.consumers().getBuffer(RenderLayer.getLines());
+        matrices.push();
+        matrices.translate(-cameraPos.x, -cameraPos.y, -cameraPos.z);
+        for (Marker marker : markers) {
+            double dx = marker.centerX() - cameraPos.x;
+            double dy = marker.centerY() - cameraPos.y;
+            double dz = marker.centerZ() - cameraPos.z;
+            double distanceSq = dx * dx + dy * dy + dz * dz;
+            if (distanceSq > rangeSq) {
+                continue;
+            }
+            double distance = Math.sqrt(distanceSq);
+            if (distance > NEAR_DISTANCE) {
+                double cosAngle = (dx * look.x + dy * look.y + dz * look.z) / distance;
+                if (cosAngle < Math.cos(Math.min(Math.PI, halfAngle + Math.asin(BLOCK_RADIUS / distance)))) {
+                    continue;
+                }
+            }
+            VertexRendering.drawBox(matrices.peek(), lines, marker.box(), marker.red(), marker.green(), marker.blue(), 1.0F);
+        }
+        matrices.pop();
+    }
+
+    /**
+     * @return Half the diagonal field of view in radians, which contains the whole view frustum
+     */
+    private static double viewConeHalfAngle(MinecraftClient client) {
+        double verticalHalf = Math.toRadians(client.options.getFov().getValue()) / 2;
+        double aspect = (double) client.getWindow().getFramebufferWidth() / Math.max(1, client.getWindow().getFramebufferHeight());
+        return Math.atan(Math.tan(verticalHalf) * Math.sqrt(1 + aspect * aspect));
+    }
+
+    /**
+     * Rebuild the render list if the player moved to another chunk or the tracked boxes changed.
+     */
+    private void refreshIfNeeded(String dimension, BlockPos playerPos) {
+        ShulkerBoxSnapshot snapshot = ShulkerBoxTracker.getInstance().getSnapshot();
+        int chunkX = playerPos.getX() >> 4;
+        int chunkZ = playerPos.getZ() >> 4;
+        if (snapshot.getVersion() == cachedVersion && dimension.equals(cachedDimension)
+                && chunkX == cachedChunkX && chunkZ == cachedChunkZ && range == cachedRange) {
+            return;
+        }
+        cachedVersion = snapshot.getVersion();
+        cachedDimension = dimension;
+        cachedChunkX = chunkX;
+        cachedChunkZ = chunkZ;
+        cachedRange = range;
+
+        // one chunk of margin, the list is only rebuilt when leaving the chunk
+        markers.clear();
+        snapshot.forEachInRange(dimension, playerPos, range + 16, data -> markers.add(Marker.of(data)));
+    }
+
+    /**
+     * A shulker box in the render list.
+     */
+    private record Marker(Box box, double centerX, double centerY, double centerZ, float red, float green, float blue) {
+        static Marker of(ShulkerBoxData data) {
+            BlockPos pos = data.getPosition();
+            Formatting formatting = ShulkerBoxFormatting.getColorFormatting(data.getColor());
+            Integer color = formatting.getColorValue();
+            int rgb = color != null ? color : 0xFFFFFF;
+            return new Marker(new Box(pos).expand(0.002),
+                    pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5,
+                    ((rgb >> 16) & 0xFF) / 255.0F, ((rgb >> 8) & 0xFF) / 255.0F, (rgb & 0xFF) / 255.0F);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.math.BlockPos;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The tracked shulker boxes of a single dimension, stored in their own snapshot and journal.
+ * <p>
+ * A partition starts out unloaded. The first placement or break in it (or entering the dimension)
+ * loads it on the IO thread, changes made in the meantime are buffered and applied once it is done.
+ * Commands can read a partition without keeping it in memory, see {@link #readDetached}. Loaded
+ * partitions that aren't used for a while are evicted again by the tracker. All methods run on the
+ * client thread.
+ */
+public class ShulkerBoxPartition {
+    private final String dimension;
+    private final ShulkerBoxJournal journal;
+    private final Runnable onLoaded;
+
+    private ShulkerBoxIndex index;
+    private ShulkerBoxPersistence persistence;
+    private boolean loading;
+    private int loadGeneration;
+    private long lastAccess;
+
+    // changes made while the partition is still loading in the background, applied in order once it is done
+    private final List<PendingChange> pendingChanges = new ArrayList<>();
+
+    /**
+     * @param directory Directory holding the files of all partitions
+     * @param dimension Dimension identifier
+     * @param onLoaded Called on the client thread whenever the partition finished loading
+     */
+    public ShulkerBoxPartition(Path directory, String dimension, Runnable onLoaded) {
+        this.dimension = dimension;
+        this.journal = new ShulkerBoxJournal(directory, fileName(dimension));
+        this.onLoaded = onLoaded;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @param dimension Dimension identifier, e.g. minecraft:the_nether
+     * @return Base file name of the partition, reversible with {@link #dimensionOf(String)}
+     */
+    public static String fileName(String dimension) {
+        return URLEncoder.encode(dimension, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param fileName Base file name of a partition
+     * @return Dimension identifier
+     */
+    public static String dimensionOf(String fileName) {
+        return URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public boolean isLoaded() {
+        return index != null;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * @return Time of the last access in milliseconds
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * @return The loaded shulker boxes, or null if the partition isn't loaded (yet)
+     */
+    public ShulkerBoxIndex getIndex() {
+        if (index != null) {
+            lastAccess = System.currentTimeMillis();
+        }
+        return index;
+    }
+
+    /**
+     * Start loading the partition on the IO thread unless it is loaded or loading already.
+     */
+    public void loadAsync() {
+        lastAccess = System.currentTimeMillis();
+        if (index != null || loading) {
+            return;
+        }
+
+        int generation = ++loadGeneration;
+        loading = true;
+        ShulkerBoxPersistence.runInBackground(() -> {
+            ShulkerBoxIndex loaded = loadFromDisk();
+            MinecraftClient.getInstance().execute(() -> {
+                if (generation == loadGeneration) {
+                    install(loaded);
+                }
+            });
+        });
+    }
+
+    /**
+     * Read the snapshot and log. Runs on the IO thread only, so loads never overlap each other or
+     * the writes of this partition.
+     */
+    private ShulkerBoxIndex loadFromDisk() {
+        ShulkerBoxIndex loaded = new ShulkerBoxIndex();
+        journal.load(loaded);
+        return loaded;
+    }
+
+    private void install(ShulkerBoxIndex loaded) {
+        index = loaded;
+        persistence = new ShulkerBoxPersistence(journal);
+        loading = false;
+
+        List<PendingChange> changes = List.copyOf(pendingChanges);
+        pendingChanges.clear();
+        for (PendingChange change : changes) {
+            complete(change, applyLoaded(change));
+        }
+        onLoaded.run();
+    }
+
+    /**
+     * Read the partition from disk on the IO thread without keeping it in memory, e.g. to select the
+     * few entries a page needs. Only the columns are built, see {@link ShulkerBoxIndex#detached()}.
+     *
+     * @param reader Runs on the IO thread with the shulker boxes read from disk, must not keep the index
+     * @return Completes with the result of the reader
+     */
+    public <T> CompletableFuture<T> readDetached(Function<ShulkerBoxIndex, T> reader) {
+        return ShulkerBoxPersistence.supplyInBackground(() -> {
+            ShulkerBoxIndex detached = ShulkerBoxIndex.detached();
+            journal.load(detached);
+            return reader.apply(detached);
+        });
+    }
+
+    /**
+     * Add a shulker box and append it to the journal. Loads the partition if necessary.
+     *
+     * @param data The placed shulker box
+     */
+    public void put(ShulkerBoxData data) {
+        change(new PendingChange(Kind.PUT, List.of(data), 0, null, null));
+    }
+
+    /**
+     * Add shulker boxes unless one is already tracked at their position. If the partition isn't
+     * loaded, they are added once it has been loaded in the background.
+     *
+     * @param found Shulker boxes of this partition
+     * @return Completes on the client thread with the entries that were added, once applied
+     */
+    public CompletableFuture<List<ShulkerBoxData>> putAllIfAbsent(List<ShulkerBoxData> found) {
+        CompletableFuture<List<ShulkerBoxData>> applied = new CompletableFuture<>();
+        change(new PendingChange(Kind.ADD_IF_ABSENT, found, 0, null, applied));
+        return applied;
+    }
+
+    /**
+     * Merge imported shulker boxes, see {@link ShulkerBoxTracker#mergeImported(List)}. If the
+     * partition isn't loaded, they are merged once it has been loaded in the background.
+     *
+     * @param imported Imported shulker boxes of this partition
+     * @return Completes on the client thread with the entries that were added or changed, once merged
+     */
+    public CompletableFuture<List<ShulkerBoxData>> mergeAll(List<ShulkerBoxData> imported) {
+        CompletableFuture<List<ShulkerBoxData>> applied = new CompletableFuture<>();
+        change(new PendingChange(Kind.MERGE, imported, 0, null, applied));
+        return applied;
+    }
+
+    /**
+     * Remove the shulker box at a position and append the removal to the journal. Loads the
+     * partition if necessary.
+     *
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     */
+    public void remove(long packedPos) {
+        change(new PendingChange(Kind.REMOVE, List.of(), packedPos, null, null));
+    }
+
+    /**
+     * Remove all shulker boxes matching a filter and write a new snapshot. A partition that isn't
+     * loaded is rewritten on the IO thread without keeping it in memory, one that is still loading
+     * once it is done.
+     *
+     * @param filter Which shulker boxes to remove
+     */
+    public void removeIf(Predicate<ShulkerBoxData> filter) {
+        if (index == null && !loading) {
+            ShulkerBoxPersistence.runInBackground(() -> {
+                ShulkerBoxIndex boxes = ShulkerBoxIndex.detached();
+                journal.load(boxes);
+                if (boxes.removeIf(filter)) {
+                    writeSnapshot(boxes.toList());
+                }
+            });
+            return;
+        }
+        change(new PendingChange(Kind.REMOVE_IF, List.of(), 0, filter, null));
+    }
+
+    /**
+     * Remove all shulker boxes. A partition that isn't loaded is replaced by an empty snapshot on the
+     * IO thread without reading it.
+     */
+    public void clear() {
+        if (index == null && !loading) {
+            ShulkerBoxPersistence.runInBackground(() -> writeSnapshot(List.of()));
+            return;
+        }
+        change(new PendingChange(Kind.REMOVE_IF, List.of(), 0, data -> true, null));
+    }
+
+    /**
+     * Replace the snapshot and discard the journal. Runs on the IO thread, after the writes queued before.
+     */
+    private void writeSnapshot(List<ShulkerBoxData> boxes) {
+        long start = ShulkerBoxStats.start();
+        ShulkerBoxStats.addBytesWritten(journal.compact(boxes));
+        ShulkerBoxStats.record(ShulkerBoxStats.Metric.SNAPSHOT_WRITE, start);
+    }
+
+    /**
+     * Apply a change right away if the partition is loaded, otherwise buffer it and load the
+     * partition in the background.
+     */
+    private void change(PendingChange change) {
+        if (index == null) {
+            pendingChanges.add(change);
+            loadAsync();
+            return;
+        }
+        complete(change, applyLoaded(change));
+    }
+
+    /**
+     * Apply a change to the loaded shulker boxes and queue its journal records.
+     *
+     * @return The entries that were added, changed or removed
+     */
+    private List<ShulkerBoxData> applyLoaded(PendingChange change) {
+        lastAccess = System.currentTimeMillis();
+        List<ShulkerBoxData> changed = apply(index, dimension, change);
+        if (change.kind() == Kind.REMOVE_IF) {
+            // one snapshot instead of a removal record per entry
+            persistence.snapshot(index.toList());
+            return changed;
+        }
+        for (ShulkerBoxData data : changed) {
+            if (change.kind() == Kind.REMOVE) {
+                persistence.recordRemove(data);
+            } else {
+                persistence.recordAdd(data);
+            }
+        }
+        if (!changed.isEmpty()) {
+            compactIfNeeded();
+        }
+        return changed;
+    }
+
+    private static void complete(PendingChange change, List<ShulkerBoxData> changed) {
+        if (change.applied() != null) {
+            change.applied().complete(changed);
+        }
+    }
+
+    /**
+     * Apply a change to the shulker boxes of a partition, loaded or read from disk.
+     *
+     * @param boxes Shulker boxes of the partition
+     * @param dimension Dimension of the partition
+     * @param change The change
+     * @return The entries that were added, changed or removed
+     */
+    private static List<ShulkerBoxData> apply(ShulkerBoxIndex boxes, String dimension, PendingChange change) {
+        List<ShulkerBoxData> changed = new ArrayList<>();
+        switch (change.kind()) {
+            case PUT -> {
+                for (ShulkerBoxData data : change.boxes()) {
+                    // replaces a stale entry at the same position
+                    boxes.put(data);
+                    changed.add(data);
+                }
+            }
+            case REMOVE -> {
+                ShulkerBoxData removed = boxes.remove(dimension, change.packedPos());
+                if (removed != null) {
+                    changed.add(removed);
+                }
+            }
+            case ADD_IF_ABSENT -> {
+                for (ShulkerBoxData data : change.boxes()) {
+                    if (!boxes.contains(dimension, data.getPosition().asLong())) {
+                        boxes.put(data);
+                        changed.add(data);
+                    }
+                }
+            }
+            case REMOVE_IF -> boxes.removeIf(data -> {
+                if (change.filter().test(data)) {
+                    changed.add(data);
+                    return true;
+                }
+                return false;
+            });
+            case MERGE -> {
+                for (ShulkerBoxData data : change.boxes()) {
+                    ShulkerBoxData merged = merge(boxes.get(dimension, data.getPosition().asLong()), data);
+                    if (merged != null) {
+                        boxes.put(merged);
+                        changed.add(merged);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * An imported entry replaces a tracked one unless that was placed later, contents recorded for
+     * the tracked one are kept if the imported entry has none.
+     *
+     * @param existing The tracked entry at the position, or null
+     * @param data The imported entry
+     * @return The entry to store, or null if the tracked one is newer or already up to date
+     */
+    private static ShulkerBoxData merge(ShulkerBoxData existing, ShulkerBoxData data) {
+        if (existing == null) {
+            return data;
+        }
+        if (existing.getTimestamp() > data.getTimestamp()) {
+            return null;
+        }
+        if (!data.hasContents() && existing.hasContents()) {
+            data = new ShulkerBoxData(data.getPosition(), data.getDimension(), data.getColor(),
+                    data.getTimestamp(), data.getCustomName(), existing.getContents());
+        }
+        if (existing.getTimestamp() == data.getTimestamp()
+                && existing.getColor().equals(data.getColor())
+                && existing.getCustomName().equals(data.getCustomName())
+                && Objects.equals(existing.getContents(), data.getContents())) {
+            // already up to date, e.g. the same file imported twice
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Replace the contents of a tracked shulker box and append them to the journal. Does nothing if
+     * the partition isn't loaded or the contents didn't change.
+     *
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @param contents New contents
+     * @return True if the contents changed
+     */
+    public boolean setContents(long packedPos, ShulkerBoxContents contents) {
+        if (index == null || !index.setContents(dimension, packedPos, contents)) {
+            return false;
+        }
+        lastAccess = System.currentTimeMillis();
+        persistence.recordContents(index.get(dimension, packedPos));
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Remove several shulker boxes at once. Does nothing if the partition isn't loaded.
+     *
+     * @param packedPositions Positions to remove
+     */
+    public void removeAll(LongList packedPositions) {
+        if (index == null) {
+            return;
+        }
+        for (int i = 0; i < packedPositions.size(); i++) {
+            removeFromIndex(packedPositions.getLong(i));
+        }
+        // one compaction check for the whole batch
+        compactIfNeeded();
+    }
+
+    private boolean removeFromIndex(long packedPos) {
+        lastAccess = System.currentTimeMillis();
+
+        // Remove the shulker box at this position
+        ShulkerBoxData removed = index.remove(dimension, packedPos);
+        if (removed == null) {
+            return false;
+        }
+
+        // Append to journal
+        persistence.recordRemove(removed);
+        return true;
+    }
+
+    /**
+     * Compact the journal into a new snapshot if it has grown too large.
+     */
+    private void compactIfNeeded() {
+        if (persistence.needsCompaction(index.size())) {
+            persistence.snapshot(index.toList());
+        }
+    }
+
+    /**
+     * Drop the loaded shulker boxes from memory, pending changes are written in the background. The
+     * partition is loaded again on the next access, that load runs after the write on the IO thread.
+     * Doesn't block, so it can run on a tick.
+     */
+    public void evict() {
+        if (persistence != null) {
+            persistence.flushAsync();
+        }
+        index = null;
+        persistence = null;
+    }
+
+    /**
+     * Write pending changes, wait until they are on disk and discard everything, including a load
+     * that is still running. Changes buffered for that load are written instead of being dropped.
+     * Used when leaving a world.
+     */
+    public void close() {
+        if (persistence != null) {
+            persistence.flush();
+        } else if (!pendingChanges.isEmpty()) {
+            List<PendingChange> changes = List.copyOf(pendingChanges);
+            ShulkerBoxPersistence.runAndWait(() -> writePending(changes));
+        }
+        index = null;
+        persistence = null;
+        loadGeneration++;
+        loading = false;
+        for (PendingChange change : pendingChanges) {
+            // written, but whoever waits for it was cancelled when the world was left
+            complete(change, List.of());
+        }
+        pendingChanges.clear();
+    }
+
+    /**
+     * Write changes that were buffered for a load that is discarded. Placements and removals are
+     * appended to the write-ahead log as they are. Whether the other changes do anything depends on
+     * what is stored, so for those the partition is read without keeping it and written as a new
+     * snapshot. Runs on the IO thread, after the discarded load.
+     */
+    private void writePending(List<PendingChange> changes) {
+        boolean conditional = false;
+        for (PendingChange change : changes) {
+            conditional |= change.kind() != Kind.PUT && change.kind() != Kind.REMOVE;
+        }
+        if (conditional) {
+            ShulkerBoxIndex boxes = ShulkerBoxIndex.detached();
+            journal.load(boxes);
+            for (PendingChange change : changes) {
+                apply(boxes, dimension, change);
+            }
+            writeSnapshot(boxes.toList());
+            return;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        for (PendingChange change : changes) {
+            if (change.kind() == Kind.REMOVE) {
+                // a removal record only needs the position and dimension
+                records.add(ShulkerBoxJournal.removeRecord(
+                        new ShulkerBoxData(BlockPos.fromLong(change.packedPos()), dimension, "", 0, "")));
+                continue;
+            }
+            for (ShulkerBoxData data : change.boxes()) {
+                records.add(ShulkerBoxJournal.addRecord(data));
+                if (data.hasContents()) {
+                    records.add(ShulkerBoxJournal.contentsRecord(data));
+                }
+            }
+        }
+        long start = ShulkerBoxStats.start();
+        ShulkerBoxStats.addBytesWritten(journal.append(records));
+        ShulkerBoxStats.record(ShulkerBoxStats.Metric.JOURNAL_WRITE, start);
+    }
+
+    private enum Kind {
+        // add or replace the given shulker boxes
+        PUT,
+        // remove the shulker box at a position
+        REMOVE,
+        // add the given shulker boxes where nothing is tracked yet
+        ADD_IF_ABSENT,
+        // merge imported shulker boxes, see merge
+        MERGE,
+        // remove the shulker boxes matching a filter and write a new snapshot
+        REMOVE_IF
+    }
+
+    /**
+     * A change to the partition, buffered while it is loading.
+     *
+     * @param kind What is changed
+     * @param boxes Shulker boxes to put, add or merge, empty for removals
+     * @param packedPos Position to remove
+     * @param filter Shulker boxes to remove for {@link Kind#REMOVE_IF}
+     * @param applied Completes with the entries that changed once the change was applied, null if nobody waits for it
+     */
+    private record PendingChange(Kind kind, List<ShulkerBoxData> boxes, long packedPos, Predicate<ShulkerBoxData> filter,
+                                 CompletableFuture<List<ShulkerBoxData>> applied) {
+    }
+}
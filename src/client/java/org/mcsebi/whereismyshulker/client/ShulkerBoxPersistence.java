@@ -0,0 +1,208 @@
+package org.mcsebi.whereismyshulker.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Writes journal records and snapshots on a background thread.
+ * <p>
+ * Changes are queued from the client thread without blocking. A single writer thread drains the
+ * queue shortly after the first change arrives, so a burst of placements or breaks ends up in one
+ * write and one fsync of the write-ahead log. Operations are applied strictly in the order they
+ * were queued.
+ */
+public class ShulkerBoxPersistence {
+    // how long to wait for more changes before writing a batch
+    private static final long COALESCE_DELAY_MS = 250;
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+
+    // compact once the journal holds more records than there are live entries (but never for tiny journals)
+    private static final int MIN_COMPACT_RECORDS = 256;
+    private static final long MAX_JOURNAL_BYTES = 4L * 1024 * 1024;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WhereIsMyShulker-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ShulkerBoxJournal journal;
+    private final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // only touched on the client thread
+    private int journalRecords;
+    private long journalBytes;
+
+    public ShulkerBoxPersistence(ShulkerBoxJournal journal) {
+        this.journal = journal;
+        this.journalRecords = journal.getLoadedRecords();
+        this.journalBytes = journal.getLoadedBytes();
+    }
+
+    /**
+     * Run a task on the IO thread, after everything that was queued before.
+     *
+     * @param task Task to run
+     */
+    public static void runInBackground(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Compute something on the IO thread, after everything that was queued before.
+     *
+     * @param task Task to run
+     * @return Completes with the result of the task
+     */
+    public static <T> CompletableFuture<T> supplyInBackground(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, EXECUTOR);
+    }
+
+    /**
+     * Queue a placement record.
+     *
+     * @param data The placed shulker box
+     */
+    public void recordAdd(ShulkerBoxData data) {
+        enqueueRecord(ShulkerBoxJournal.addRecord(data));
+        if (data.hasContents()) {
+            enqueueRecord(ShulkerBoxJournal.contentsRecord(data));
+        }
+    }
+
+    /**
+     * Queue a record with the new contents of a shulker box.
+     *
+     * @param data The shulker box, with its contents
+     */
+    public void recordContents(ShulkerBoxData data) {
+        enqueueRecord(ShulkerBoxJournal.contentsRecord(data));
+    }
+
+    /**
+     * Queue a removal record.
+     *
+     * @param data The removed shulker box
+     */
+    public void recordRemove(ShulkerBoxData data) {
+        enqueueRecord(ShulkerBoxJournal.removeRecord(data));
+    }
+
+    private void enqueueRecord(byte[] record) {
+        pending.add(record);
+        journalRecords++;
+        journalBytes += record.length;
+        scheduleDrain();
+    }
+
+    /**
+     * Check whether the journal should be folded into a new snapshot.
+     *
+     * @param liveCount Number of currently tracked shulker boxes
+     * @return True if compaction is due
+     */
+    public boolean needsCompaction(int liveCount) {
+        return journalBytes >= MAX_JOURNAL_BYTES
+                || journalRecords >= Math.max(MIN_COMPACT_RECORDS, liveCount);
+    }
+
+    /**
+     * Queue a full snapshot. Any journal records queued before it become obsolete.
+     *
+     * @param boxes Immutable copy of all currently tracked shulker boxes
+     */
+    public void snapshot(List<ShulkerBoxData> boxes) {
+        pending.add(new Snapshot(boxes));
+        journalRecords = 0;
+        journalBytes = 0;
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            EXECUTOR.schedule(this::drain, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write everything that is currently queued. Runs on the writer thread only.
+     */
+    private void drain() {
+        // reset first, anything queued from now on schedules another drain
+        drainScheduled.set(false);
+
+        List<Object> batch = new ArrayList<>();
+        Object op;
+        while ((op = pending.poll()) != null) {
+            batch.add(op);
+        }
+
+        // a snapshot supersedes every record queued before it
+        int start = 0;
+        Snapshot snapshot = null;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (batch.get(i) instanceof Snapshot s) {
+                snapshot = s;
+                start = i + 1;
+                break;
+            }
+        }
+
+        if (snapshot != null) {
+            long snapshotStart = ShulkerBoxStats.start();
+            ShulkerBoxStats.addBytesWritten(journal.compact(snapshot.boxes()));
+            ShulkerBoxStats.record(ShulkerBoxStats.Metric.SNAPSHOT_WRITE, snapshotStart);
+        }
+
+        // all records of the batch share one write and one fsync
+        List<byte[]> records = new ArrayList<>(batch.size() - start);
+        for (int i = start; i < batch.size(); i++) {
+            records.add((byte[]) batch.get(i));
+        }
+        if (!records.isEmpty()) {
+            long appendStart = ShulkerBoxStats.start();
+            ShulkerBoxStats.addBytesWritten(journal.append(records));
+            ShulkerBoxStats.record(ShulkerBoxStats.Metric.JOURNAL_WRITE, appendStart);
+        }
+    }
+
+    /**
+     * Write all queued changes soon without waiting for them. Tasks queued with
+     * {@link #runInBackground(Runnable)} afterwards, like loading the same files again, run after
+     * the write. Safe to call on a tick.
+     */
+    public void flushAsync() {
+        EXECUTOR.execute(this::drain);
+    }
+
+    /**
+     * Write all queued changes and wait until they are on disk. Used when leaving a world or
+     * shutting down, never on a tick.
+     */
+    public void flush() {
+        runAndWait(this::drain);
+    }
+
+    /**
+     * Run a task on the IO thread, after everything that was queued before, and wait for it. Used
+     * when leaving a world or shutting down, never on a tick.
+     *
+     * @param task Task to run
+     */
+    public static void runAndWait(Runnable task) {
+        try {
+            EXECUTOR.submit(task).get(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private record Snapshot(List<ShulkerBoxData> boxes) {
+    }
+}
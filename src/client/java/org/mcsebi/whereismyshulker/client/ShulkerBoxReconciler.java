@@ -0,0 +1,111 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.ShulkerBoxBlock;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.WorldChunk;
+
+/**
+ * Drops tracked shulker boxes that are gone when their chunk is loaded, e.g. because they were blown
+ * up or pushed by a piston while nobody was watching.
+ * <p>
+ * Only chunks that contain tracked boxes are queued. The queue is worked off at the end of each
+ * client tick until a fixed time budget is used up, so loading many chunks at once is spread over
+ * several ticks instead of causing a frame spike.
+ */
+public class ShulkerBoxReconciler {
+    private static final long TICK_BUDGET_NANOS = 500_000; // 0.5 ms
+
+    private final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+    private final LongOpenHashSet queued = new LongOpenHashSet();
+    private ClientWorld world;
+    private int dataGeneration = -1;
+
+    /**
+     * Called when the client receives a chunk.
+     *
+     * @param world The world the chunk belongs to
+     * @param chunk The loaded chunk
+     */
+    public void onChunkLoad(ClientWorld world, WorldChunk chunk) {
+        if (world != this.world) {
+            // dimension change, the next tick resets the queue
+            return;
+        }
+        ChunkPos pos = chunk.getPos();
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (!tracker.getTrackedInChunk(dimensionOf(world), pos.x, pos.z).isEmpty()) {
+            enqueue(pos.toLong());
+        }
+    }
+
+    /**
+     * Check queued chunks until the time budget of this tick is used up.
+     *
+     * @param client Minecraft client instance
+     */
+    public void onTick(MinecraftClient client) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (client.world == null || tracker.isLoading()) {
+            return;
+        }
+
+        if (client.world != world || tracker.getDataGeneration() != dataGeneration) {
+            // new world, dimension or freshly loaded data: check every loaded chunk holding tracked boxes
+            world = client.world;
+            dataGeneration = tracker.getDataGeneration();
+            queue.clear();
+            queued.clear();
+            ClientWorld currentWorld = world;
+            tracker.forEachTrackedChunk(dimensionOf(world), chunkKey -> {
+                if (currentWorld.getChunkManager().isChunkLoaded(ChunkPos.getPackedX(chunkKey), ChunkPos.getPackedZ(chunkKey))) {
+                    enqueue(chunkKey);
+                }
+            });
+        }
+
+        long deadline = System.nanoTime() + TICK_BUDGET_NANOS;
+        String dimension = dimensionOf(world);
+        LongArrayList missing = new LongArrayList();
+        while (!queue.isEmpty() && System.nanoTime() < deadline) {
+            long chunkKey = queue.dequeueLong();
+            queued.remove(chunkKey);
+            int chunkX = ChunkPos.getPackedX(chunkKey);
+            int chunkZ = ChunkPos.getPackedZ(chunkKey);
+            if (!world.getChunkManager().isChunkLoaded(chunkX, chunkZ)) {
+                // unloaded again before we got to it, checked on its next load
+                continue;
+            }
+
+            LongList tracked = tracker.getTrackedInChunk(dimension, chunkX, chunkZ);
+            BlockPos.Mutable pos = new BlockPos.Mutable();
+            for (int i = 0; i < tracked.size(); i++) {
+                long packedPos = tracked.getLong(i);
+                pos.set(packedPos);
+                if (!(world.getBlockState(pos).getBlock() instanceof ShulkerBoxBlock)) {
+                    missing.add(packedPos);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            tracker.removeMissingShulkerBoxes(dimension, missing);
+        }
+    }
+
+    private void enqueue(long chunkKey) {
+        if (queued.add(chunkKey)) {
+            queue.enqueue(chunkKey);
+        }
+    }
+
+    private static String dimensionOf(ClientWorld world) {
+        return world.getRegistryKey().getValue().toString();
+    }
+}
@@ -0,0 +1,413 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Finds shulker boxes in the region files (.mca) of a saved world without loading the world.
+ * <p>
+ * Region files are memory-mapped. Every chunk still has to be inflated, but its NBT is only walked,
+ * not turned into objects: everything besides the block entity list is skipped over, and the block
+ * palettes (needed for the color) are only decoded for chunks that contain a shulker box.
+ * <p>
+ * Stateless, region files can be scanned in parallel.
+ */
+public final class ShulkerBoxRegionScanner {
+    private static final int SECTOR_BYTES = 4096;
+    private static final int CHUNKS_PER_REGION = 1024;
+
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int COMPRESSION_LZ4 = 4;
+    private static final int EXTERNAL_FLAG = 128;
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_INT_ARRAY = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    private ShulkerBoxRegionScanner() {
+    }
+
+    /**
+     * Scan a single region file.
+     *
+     * @param regionFile Region file, r.x.z.mca
+     * @param dimension Dimension identifier the found shulker boxes get
+     * @param cancelled Checked between chunks, the scan stops early once it returns true
+     * @return Shulker boxes found in the file, with the time their chunk was last saved as timestamp
+     * @throws IOException If the file can't be read
+     */
+    public static List<ShulkerBoxData> scan(Path regionFile, String dimension, BooleanSupplier cancelled) throws IOException {
+        List<ShulkerBoxData> found = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(regionFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < 2 * SECTOR_BYTES) {
+                return found;
+            }
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            for (int i = 0; i < CHUNKS_PER_REGION && !cancelled.getAsBoolean(); i++) {
+                int location = region.getInt(i * 4);
+                long offset = (long) (location >>> 8) * SECTOR_BYTES;
+                if (location == 0 || offset + 5 > fileSize) {
+                    continue;
+                }
+                long savedAt = (region.getInt(SECTOR_BYTES + i * 4) & 0xFFFFFFFFL) * 1000;
+                try {
+                    byte[] chunk = readChunk(region, (int) offset, regionFile, i);
+                    if (chunk != null) {
+                        scanChunk(ByteBuffer.wrap(chunk), dimension, savedAt, found);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // a chunk that is being written or is damaged doesn't stop the scan
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Read and decompress the NBT of one chunk.
+     *
+     * @return Uncompressed NBT, or null if the chunk is empty or uses an unknown compression
+     */
+    private static byte[] readChunk(ByteBuffer region, int offset, Path regionFile, int index) throws IOException {
+        int length = region.getInt(offset);
+        int compression = region.get(offset + 4) & 0xFF;
+        if (length <= 1 || offset + 4L + length > region.limit()) {
+            return null;
+        }
+
+        InputStream compressed;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            // oversized chunks live in c.<x>.<z>.mcc next to the region file
+            compression &= ~EXTERNAL_FLAG;
+            String[] parts = regionFile.getFileName().toString().split("\\.");
+            int chunkX = Integer.parseInt(parts[1]) * 32 + (index & 31);
+            int chunkZ = Integer.parseInt(parts[2]) * 32 + (index >> 5);
+            compressed = Files.newInputStream(regionFile.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc"));
+        } else {
+            byte[] bytes = new byte[length - 1];
+            region.get(offset + 5, bytes);
+            compressed = new ByteArrayInputStream(bytes);
+        }
+
+        try (InputStream in = switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPInputStream(compressed);
+            case COMPRESSION_ZLIB -> new InflaterInputStream(compressed);
+            case COMPRESSION_NONE -> compressed;
+            case COMPRESSION_LZ4 -> new LZ4BlockInputStream(compressed);
+            default -> null;
+        }) {
+            return in != null ? in.readAllBytes() : null;
+        } finally {
+            compressed.close();
+        }
+    }
+
+    /**
+     * Collect the shulker box block entities of a chunk, then look up their colors in the sections.
+     */
+    private static void scanChunk(ByteBuffer nbt, String dimension, long savedAt, List<ShulkerBoxData> found) {
+        if (nbt.get() != TAG_COMPOUND) {
+            return;
+        }
+        skipString(nbt);
+
+        List<FoundBox> boxes = new ArrayList<>();
+        int sections = -1;
+        byte type;
+        while ((type = nbt.get()) != TAG_END) {
+            if (type == TAG_LIST && nameEquals(nbt, "block_entities")) {
+                readBlockEntities(nbt, boxes);
+            } else if (type == TAG_LIST && nameEquals(nbt, "sections")) {
+                // only decoded if there is a shulker box, which may come later
+                sections = nbt.position();
+                skipPayload(nbt, type);
+            } else {
+                skipPayload(nbt, type);
+            }
+        }
+        if (boxes.isEmpty()) {
+            return;
+        }
+
+        if (sections >= 0) {
+            nbt.position(sections);
+            readColors(nbt, boxes);
+        }
+        for (FoundBox box : boxes) {
+            String color = box.blockId != null ? ShulkerBoxTracker.getShulkerBoxColor(box.blockId) : "Unknown";
+            found.add(new ShulkerBoxData(new BlockPos(box.x, box.y, box.z), dimension, color, savedAt, box.customName));
+        }
+    }
+
+    private static void readBlockEntities(ByteBuffer nbt, List<FoundBox> boxes) {
+        byte elementType = nbt.get();
+        int count = nbt.getInt();
+        if (elementType != TAG_COMPOUND) {
+            for (int i = 0; i < count; i++) {
+                skipPayload(nbt, elementType);
+            }
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            FoundBox box = new FoundBox();
+            boolean shulkerBox = false;
+            byte type;
+            while ((type = nbt.get()) != TAG_END) {
+                if (type == TAG_STRING && nameEquals(nbt, "id")) {
+                    shulkerBox = readString(nbt).endsWith("shulker_box");
+                } else if (type == TAG_INT && nameEquals(nbt, "x")) {
+                    box.x = nbt.getInt();
+                } else if (type == TAG_INT && nameEquals(nbt, "y")) {
+                    box.y = nbt.getInt();
+                } else if (type == TAG_INT && nameEquals(nbt, "z")) {
+                    box.z = nbt.getInt();
+                } else if (nameEquals(nbt, "CustomName")) {
+                    box.customName = readCustomName(nbt, type);
+                } else {
+                    skipPayload(nbt, type);
+                }
+            }
+            if (shulkerBox) {
+                boxes.add(box);
+            }
+        }
+    }
+
+    /**
+     * Read a custom name, stored as plain string, JSON string (before 1.21.5) or text compound.
+     */
+    private static String readCustomName(ByteBuffer nbt, byte type) {
+        if (type == TAG_STRING) {
+            String name = readString(nbt);
+            int text = name.indexOf("\"text\":\"");
+            if (name.startsWith("{") && text >= 0) {
+                int start = text + 8;
+                int end = name.indexOf('"', start);
+                return end > start ? name.substring(start, end) : "";
+            }
+            return name.startsWith("\"") && name.endsWith("\"") && name.length() >= 2
+                    ? name.substring(1, name.length() - 1) : name;
+        } else if (type == TAG_COMPOUND) {
+            String name = "";
+            byte fieldType;
+            while ((fieldType = nbt.get()) != TAG_END) {
+                if (fieldType == TAG_STRING && nameEquals(nbt, "text")) {
+                    name = readString(nbt);
+                } else {
+                    skipPayload(nbt, fieldType);
+                }
+            }
+            return name;
+        }
+        skipPayload(nbt, type);
+        return "";
+    }
+
+    /**
+     * Look up the block of every found box in the block palette of its section.
+     */
+    private static void readColors(ByteBuffer nbt, List<FoundBox> boxes) {
+        byte elementType = nbt.get();
+        int count = nbt.getInt();
+        if (elementType != TAG_COMPOUND) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int sectionY = Integer.MIN_VALUE;
+            List<String> palette = null;
+            int data = -1;
+            int dataLength = 0;
+            byte type;
+            while ((type = nbt.get()) != TAG_END) {
+                if (type == 1 && nameEquals(nbt, "Y")) {
+                    sectionY = nbt.get();
+                } else if (type == TAG_COMPOUND && nameEquals(nbt, "block_states")) {
+                    byte stateType;
+                    while ((stateType = nbt.get()) != TAG_END) {
+                        if (stateType == TAG_LIST && nameEquals(nbt, "palette")) {
+                            palette = readPalette(nbt);
+                        } else if (stateType == TAG_LONG_ARRAY && nameEquals(nbt, "data")) {
+                            dataLength = nbt.getInt();
+                            data = nbt.position();
+                            nbt.position(data + dataLength * 8);
+                        } else {
+                            skipPayload(nbt, stateType);
+                        }
+                    }
+                } else {
+                    skipPayload(nbt, type);
+                }
+            }
+
+            if (palette == null || palette.isEmpty()) {
+                continue;
+            }
+            for (FoundBox box : boxes) {
+                if (box.y >> 4 != sectionY) {
+                    continue;
+                }
+                int paletteIndex = 0;
+                if (palette.size() > 1 && data >= 0) {
+                    int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
+                    int perLong = 64 / bits;
+                    int blockIndex = ((box.y & 15) << 8) | ((box.z & 15) << 4) | (box.x & 15);
+                    int word = blockIndex / perLong;
+                    if (word >= dataLength) {
+                        continue;
+                    }
+                    long value = nbt.getLong(data + word * 8) >>> ((blockIndex % perLong) * bits);
+                    paletteIndex = (int) (value & ((1L << bits) - 1));
+                }
+                if (paletteIndex < palette.size()) {
+                    box.blockId = palette.get(paletteIndex);
+                }
+            }
+        }
+    }
+
+    private static List<String> readPalette(ByteBuffer nbt) {
+        byte elementType = nbt.get();
+        int count = nbt.getInt();
+        List<String> names = new ArrayList<>(count);
+        if (elementType != TAG_COMPOUND) {
+            for (int i = 0; i < count; i++) {
+                skipPayload(nbt, elementType);
+            }
+            return names;
+        }
+        for (int i = 0; i < count; i++) {
+            String name = "";
+            byte type;
+            while ((type = nbt.get()) != TAG_END) {
+                if (type == TAG_STRING && nameEquals(nbt, "Name")) {
+                    name = readString(nbt);
+                } else {
+                    skipPayload(nbt, type);
+                }
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Compare the name of the current tag with an ASCII name and move past it.
+     */
+    private static boolean nameEquals(ByteBuffer nbt, String name) {
+        int length = nbt.getShort() & 0xFFFF;
+        int start = nbt.position();
+        nbt.position(start + length);
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (nbt.get(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipString(ByteBuffer nbt) {
+        int length = nbt.getShort() & 0xFFFF;
+        nbt.position(nbt.position() + length);
+    }
+
+    private static String readString(ByteBuffer nbt) {
+        int length = nbt.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        nbt.get(bytes);
+        for (byte b : bytes) {
+            if (b < 0) {
+                // NBT strings use modified UTF-8, only matters for non-ASCII text
+                try {
+                    ByteBuffer prefixed = ByteBuffer.allocate(2 + length).putShort((short) length).put(bytes);
+                    return new DataInputStream(new ByteArrayInputStream(prefixed.array())).readUTF();
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipPayload(ByteBuffer nbt, byte type) {
+        switch (type) {
+            case 1 -> nbt.position(nbt.position() + 1);
+            case 2 -> nbt.position(nbt.position() + 2);
+            case 3, 5 -> nbt.position(nbt.position() + 4);
+            case 4, 6 -> nbt.position(nbt.position() + 8);
+            case TAG_BYTE_ARRAY -> nbt.position(nbt.position() + nbt.getInt());
+            case TAG_STRING -> skipString(nbt);
+            case TAG_LIST -> {
+                byte elementType = nbt.get();
+                int count = nbt.getInt();
+                int fixedSize = switch (elementType) {
+                    case 0 -> 0;
+                    case 1 -> 1;
+                    case 2 -> 2;
+                    case 3, 5 -> 4;
+                    case 4, 6 -> 8;
+                    default -> -1;
+                };
+                if (fixedSize >= 0) {
+                    nbt.position(nbt.position() + count * fixedSize);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        skipPayload(nbt, elementType);
+                    }
+                }
+            }
+            case TAG_COMPOUND -> {
+                byte fieldType;
+                while ((fieldType = nbt.get()) != TAG_END) {
+                    skipString(nbt);
+                    skipPayload(nbt, fieldType);
+                }
+            }
+            case TAG_INT_ARRAY -> nbt.position(nbt.position() + nbt.getInt() * 4);
+            case TAG_LONG_ARRAY -> nbt.position(nbt.position() + nbt.getInt() * 8);
+            default -> throw new IllegalArgumentException("Unknown NBT tag type " + type);
+        }
+    }
+
+    /**
+     * A shulker box block entity found in a chunk.
+     */
+    private static final class FoundBox {
+        int x;
+        int y;
+        int z;
+        String customName = "";
+        // block id from the section palette, e.g. minecraft:red_shulker_box
+        String blockId;
+    }
+}
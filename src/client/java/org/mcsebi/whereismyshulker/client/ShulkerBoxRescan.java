@@ -0,0 +1,168 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.integrated.IntegratedServer;
+import net.minecraft.text.Text;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.world.World;
+import net.minecraft.world.dimension.DimensionType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Rebuilds the tracked shulker boxes of a singleplayer world from its region files, see
+ * {@link ShulkerBoxRegionScanner}.
+ * <p>
+ * Region files are scanned in parallel on a dedicated fork-join pool. The boxes of every finished file
+ * are handed to the tracker on the client thread right away, so results show up while the scan runs.
+ * Dimensions that aren't loaded are loaded in the background first, nothing waits for them on the
+ * client thread.
+ * Only one rescan runs at a time and it can be cancelled.
+ */
+public class ShulkerBoxRescan {
+    private static ShulkerBoxRescan instance;
+
+    // progress is reported every this many percent
+    private static final int PROGRESS_STEP = 10;
+
+    private ForkJoinPool pool;
+    // replaced for every rescan, so tasks of a cancelled one stay cancelled
+    private AtomicBoolean cancelled = new AtomicBoolean();
+    // only accessed on the client thread
+    private int added;
+
+    private ShulkerBoxRescan() {
+    }
+
+    public static ShulkerBoxRescan getInstance() {
+        if (instance == null) {
+            instance = new ShulkerBoxRescan();
+        }
+        return instance;
+    }
+
+    /**
+     * @return True while a rescan is running
+     */
+    public boolean isRunning() {
+        return pool != null;
+    }
+
+    /**
+     * Start scanning the region files of all dimensions of the singleplayer world. Reads what the game
+     * has saved to disk, boxes placed since the last autosave are tracked anyway.
+     *
+     * @param client Minecraft client instance
+     * @param feedback Receives progress and the result, called on the client thread
+     * @return False if no singleplayer world is loaded or a rescan is already running
+     */
+    public boolean start(MinecraftClient client, Consumer<Text> feedback) {
+        IntegratedServer server = client.getServer();
+        if (server == null || isRunning()) {
+            return false;
+        }
+
+        Path worldRoot = server.getSavePath(WorldSavePath.ROOT);
+        List<RegionFile> regionFiles = new ArrayList<>();
+        for (RegistryKey<World> key : server.getWorldRegistryKeys()) {
+            Path regionDirectory = DimensionType.getSaveDirectory(key, worldRoot).resolve("region");
+            String dimension = key.getValue().toString();
+            if (!Files.isDirectory(regionDirectory)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(regionDirectory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(".mca"))
+                        .forEach(file -> regionFiles.add(new RegionFile(file, dimension)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        AtomicBoolean scanCancelled = new AtomicBoolean();
+        cancelled = scanCancelled;
+        added = 0;
+        pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        ForkJoinPool scanPool = pool;
+        feedback.accept(Text.literal("Scanning " + regionFiles.size() + " region files..."));
+        if (regionFiles.isEmpty()) {
+            finish(scanPool, feedback);
+            return true;
+        }
+
+        AtomicInteger done = new AtomicInteger();
+        for (RegionFile regionFile : regionFiles) {
+            scanPool.execute(() -> {
+                List<ShulkerBoxData> found = List.of();
+                if (!scanCancelled.get()) {
+                    try {
+                        found = ShulkerBoxRegionScanner.scan(regionFile.path(), regionFile.dimension(), scanCancelled::get);
+                    } catch (IOException e) {
+                        if (!scanCancelled.get()) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+
+                List<ShulkerBoxData> result = found;
+                client.execute(() -> {
+                    if (scanCancelled.get()) {
+                        return;
+                    }
+                    // added after a background load if the dimension isn't loaded, completes on the client thread
+                    ShulkerBoxTracker.getInstance().addRescannedShulkerBoxes(regionFile.dimension(), result).thenAccept(count -> {
+                        if (scanCancelled.get()) {
+                            return;
+                        }
+                        // counted once added, so the last file is reported after all results
+                        int finished = done.incrementAndGet();
+                        added += count;
+
+                        if (finished == regionFiles.size()) {
+                            finish(scanPool, feedback);
+                        } else if (finished * 100 / regionFiles.size() / PROGRESS_STEP
+                                > (finished - 1) * 100 / regionFiles.size() / PROGRESS_STEP) {
+                            feedback.accept(Text.literal("Rescan " + finished * 100 / regionFiles.size() + "% done, "
+                                    + added + " new shulker boxes so far"));
+                        }
+                    });
+                });
+            });
+        }
+        return true;
+    }
+
+    private void finish(ForkJoinPool scanPool, Consumer<Text> feedback) {
+        scanPool.shutdown();
+        pool = null;
+        feedback.accept(Text.literal("Rescan finished, " + added + " new shulker boxes tracked."));
+    }
+
+    /**
+     * Stop a running rescan. Shulker boxes already added are kept.
+     *
+     * @return False if no rescan was running
+     */
+    public boolean cancel() {
+        if (!isRunning()) {
+            return false;
+        }
+        cancelled.set(true);
+        // running tasks stop at their next chunk
+        pool.shutdown();
+        pool = null;
+        return true;
+    }
+
+    private record RegionFile(Path path, String dimension) {
+    }
+}
@@ -0,0 +1,236 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Immutable view of the tracked shulker boxes of all loaded dimensions, safe to read from any thread.
+ * <p>
+ * Entries are grouped by chunk, and chunks by region (32x32 chunks). A new version only copies the
+ * chunk lists that changed plus the region and dimension maps above them, everything else is shared
+ * with the previous version. So publishing after a placement costs about the same no matter how many
+ * boxes are tracked.
+ * <p>
+ * Versions are built by {@link ShulkerBoxTracker} on the client thread and published at the end of
+ * every tick that changed something, see {@link ShulkerBoxSnapshotPublisher}.
+ */
+public final class ShulkerBoxSnapshot {
+    public static final ShulkerBoxSnapshot EMPTY = new ShulkerBoxSnapshot(0, Map.of());
+
+    private static final int REGION_SHIFT = 5;
+
+    private final long version;
+    private final Map<String, Dimension> dimensions;
+    private final int size;
+
+    private ShulkerBoxSnapshot(long version, Map<String, Dimension> dimensions) {
+        this.version = version;
+        this.dimensions = dimensions;
+        int total = 0;
+        for (Dimension dimension : dimensions.values()) {
+            total += dimension.size;
+        }
+        this.size = total;
+    }
+
+    /**
+     * @return Number that grows with every published change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Number of shulker boxes in all dimensions of the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param dimension Dimension identifier
+     * @return Number of shulker boxes in that dimension, 0 if it isn't loaded
+     */
+    public int size(String dimension) {
+        Dimension view = dimensions.get(dimension);
+        return view != null ? view.size : 0;
+    }
+
+    /**
+     * @return Dimensions included in the snapshot
+     */
+    public Set<String> getDimensions() {
+        return dimensions.keySet();
+    }
+
+    /**
+     * @param dimension Dimension identifier
+     * @param chunkX Chunk x coordinate
+     * @param chunkZ Chunk z coordinate
+     * @return Shulker boxes in that chunk, read-only
+     */
+    public List<ShulkerBoxData> getChunk(String dimension, int chunkX, int chunkZ) {
+        Dimension view = dimensions.get(dimension);
+        if (view == null) {
+            return List.of();
+        }
+        Long2ObjectMap<List<ShulkerBoxData>> region = view.regions.get(regionKey(chunkX, chunkZ));
+        if (region == null) {
+            return List.of();
+        }
+        List<ShulkerBoxData> entries = region.get(ChunkPos.toLong(chunkX, chunkZ));
+        return entries != null ? entries : List.of();
+    }
+
+    /**
+     * @param dimension Dimension identifier
+     * @param pos Block position
+     * @return The shulker box at that position, or null if there is none
+     */
+    public ShulkerBoxData get(String dimension, BlockPos pos) {
+        for (ShulkerBoxData data : getChunk(dimension, pos.getX() >> 4, pos.getZ() >> 4)) {
+            if (data.getPosition().equals(pos)) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visit the shulker boxes in all chunks overlapping a square around a position.
+     *
+     * @param dimension Dimension identifier
+     * @param center Center of the square
+     * @param radius Half the side length in blocks
+     * @param action Called for every shulker box in those chunks
+     */
+    public void forEachInRange(String dimension, BlockPos center, int radius, Consumer<ShulkerBoxData> action) {
+        Dimension view = dimensions.get(dimension);
+        if (view == null) {
+            return;
+        }
+        int minChunkX = (center.getX() - radius) >> 4;
+        int maxChunkX = (center.getX() + radius) >> 4;
+        int minChunkZ = (center.getZ() - radius) >> 4;
+        int maxChunkZ = (center.getZ() + radius) >> 4;
+        for (int regionX = minChunkX >> REGION_SHIFT; regionX <= maxChunkX >> REGION_SHIFT; regionX++) {
+            for (int regionZ = minChunkZ >> REGION_SHIFT; regionZ <= maxChunkZ >> REGION_SHIFT; regionZ++) {
+                Long2ObjectMap<List<ShulkerBoxData>> region = view.regions.get(ChunkPos.toLong(regionX, regionZ));
+                if (region == null) {
+                    continue;
+                }
+                for (Long2ObjectMap.Entry<List<ShulkerBoxData>> chunk : region.long2ObjectEntrySet()) {
+                    int chunkX = ChunkPos.getPackedX(chunk.getLongKey());
+                    int chunkZ = ChunkPos.getPackedZ(chunk.getLongKey());
+                    if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                        chunk.getValue().forEach(action);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long regionKey(int chunkX, int chunkZ) {
+        return ChunkPos.toLong(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+    }
+
+    /**
+     * Build the next version. Dimensions that are neither rebuilt, updated nor removed are shared.
+     *
+     * @param rebuilt Dimensions to rebuild completely, with their loaded index
+     * @param changedChunks Dimensions with the packed positions of the chunks that changed
+     * @param indices Loaded index of every dimension in changedChunks
+     * @param removed Dimensions to drop
+     * @return The new version
+     */
+    ShulkerBoxSnapshot next(Map<String, ShulkerBoxIndex> rebuilt, Map<String, LongSet> changedChunks,
+                            Map<String, ShulkerBoxIndex> indices, Set<String> removed) {
+        Map<String, Dimension> next = new HashMap<>(dimensions);
+        next.keySet().removeAll(removed);
+
+        rebuilt.forEach((dimension, index) -> {
+            Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<List<ShulkerBoxData>>> regions = new Long2ObjectOpenHashMap<>();
+            int[] size = new int[1];
+            index.getChunkGrid().forEachChunk(dimension, chunk -> {
+                List<ShulkerBoxData> entries = chunkEntries(index, dimension, chunk);
+                if (!entries.isEmpty()) {
+                    regions.computeIfAbsent(regionKey(ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk)),
+                            k -> new Long2ObjectOpenHashMap<>()).put(chunk, entries);
+                    size[0] += entries.size();
+                }
+            });
+            Long2ObjectOpenHashMap<Long2ObjectMap<List<ShulkerBoxData>>> frozen = new Long2ObjectOpenHashMap<>(regions.size());
+            regions.long2ObjectEntrySet().forEach(region ->
+                    frozen.put(region.getLongKey(), Long2ObjectMaps.unmodifiable(region.getValue())));
+            next.put(dimension, new Dimension(Long2ObjectMaps.unmodifiable(frozen), size[0]));
+        });
+
+        changedChunks.forEach((dimension, chunks) -> {
+            ShulkerBoxIndex index = indices.get(dimension);
+            if (index == null || rebuilt.containsKey(dimension)) {
+                return;
+            }
+            Dimension previous = next.getOrDefault(dimension, Dimension.EMPTY);
+            Long2ObjectOpenHashMap<Long2ObjectMap<List<ShulkerBoxData>>> regions = new Long2ObjectOpenHashMap<>(previous.regions);
+            // regions copied for this version, the shared ones must not be modified
+            Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<List<ShulkerBoxData>>> copied = new Long2ObjectOpenHashMap<>();
+            int size = previous.size;
+
+            for (long chunk : chunks) {
+                long regionKey = regionKey(ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk));
+                Long2ObjectOpenHashMap<List<ShulkerBoxData>> region = copied.get(regionKey);
+                if (region == null) {
+                    Long2ObjectMap<List<ShulkerBoxData>> shared = regions.get(regionKey);
+                    region = shared != null ? new Long2ObjectOpenHashMap<>(shared) : new Long2ObjectOpenHashMap<>();
+                    copied.put(regionKey, region);
+                }
+
+                List<ShulkerBoxData> entries = chunkEntries(index, dimension, chunk);
+                List<ShulkerBoxData> old = entries.isEmpty() ? region.remove(chunk) : region.put(chunk, entries);
+                size += entries.size() - (old != null ? old.size() : 0);
+            }
+
+            copied.long2ObjectEntrySet().forEach(region -> {
+                if (region.getValue().isEmpty()) {
+                    regions.remove(region.getLongKey());
+                } else {
+                    regions.put(region.getLongKey(), Long2ObjectMaps.unmodifiable(region.getValue()));
+                }
+            });
+            next.put(dimension, new Dimension(Long2ObjectMaps.unmodifiable(regions), size));
+        });
+
+        return new ShulkerBoxSnapshot(version + 1, Map.copyOf(next));
+    }
+
+    private static List<ShulkerBoxData> chunkEntries(ShulkerBoxIndex index, String dimension, long chunk) {
+        LongList positions = index.getChunkGrid().getChunk(dimension, ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk));
+        List<ShulkerBoxData> entries = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            ShulkerBoxData data = index.get(dimension, positions.getLong(i));
+            if (data != null) {
+                entries.add(data);
+            }
+        }
+        return List.copyOf(entries);
+    }
+
+    /**
+     * Shulker boxes of one dimension, by region and chunk.
+     */
+    private record Dimension(Long2ObjectMap<Long2ObjectMap<List<ShulkerBoxData>>> regions, int size) {
+        static final Dimension EMPTY = new Dimension(Long2ObjectMaps.emptyMap(), 0);
+    }
+}
@@ -0,0 +1,115 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Collects the changes of the tracked shulker boxes during a tick and publishes them as a new
+ * {@link ShulkerBoxSnapshot} version.
+ * <p>
+ * Everything except {@link #get()} must be called on the thread that modifies the indices, which is
+ * the client thread for {@link ShulkerBoxTracker}. {@link #get()} can be called from any thread.
+ */
+public class ShulkerBoxSnapshotPublisher {
+    // latest published view for readers on any thread
+    private final AtomicReference<ShulkerBoxSnapshot> snapshot = new AtomicReference<>(ShulkerBoxSnapshot.EMPTY);
+    // changes since the last published view
+    private final Set<String> rebuiltDimensions = new HashSet<>();
+    private final Map<String, LongSet> changedChunks = new HashMap<>();
+    private final Set<String> droppedDimensions = new HashSet<>();
+
+    /**
+     * @return Latest published view, never changes
+     */
+    public ShulkerBoxSnapshot get() {
+        return snapshot.get();
+    }
+
+    /**
+     * Mark the chunk of a position as changed, its entries are copied into the next version.
+     *
+     * @param dimension Dimension identifier
+     * @param packedPos Position as returned by {@link BlockPos#asLong()}
+     */
+    public void markChanged(String dimension, long packedPos) {
+        changedChunks.computeIfAbsent(dimension, k -> new LongOpenHashSet())
+                .add(ChunkPos.toLong(BlockPos.unpackLongX(packedPos) >> 4, BlockPos.unpackLongZ(packedPos) >> 4));
+    }
+
+    /**
+     * Mark a dimension as changed as a whole, e.g. after it was loaded or reset. All its entries are
+     * copied into the next version.
+     *
+     * @param dimension Dimension identifier
+     */
+    public void markRebuilt(String dimension) {
+        rebuiltDimensions.add(dimension);
+    }
+
+    /**
+     * Mark a dimension as no longer loaded, the next version doesn't include it.
+     *
+     * @param dimension Dimension identifier
+     */
+    public void markDropped(String dimension) {
+        droppedDimensions.add(dimension);
+    }
+
+    /**
+     * Build and publish a new version if anything changed since the last one. Only the changed chunks
+     * are copied, see {@link ShulkerBoxSnapshot}.
+     *
+     * @param loadedIndex Index of a dimension, null if it isn't loaded (yet)
+     */
+    public void publish(Function<String, ShulkerBoxIndex> loadedIndex) {
+        if (rebuiltDimensions.isEmpty() && changedChunks.isEmpty() && droppedDimensions.isEmpty()) {
+            return;
+        }
+
+        Map<String, ShulkerBoxIndex> rebuilt = new HashMap<>();
+        for (String dimension : rebuiltDimensions) {
+            ShulkerBoxIndex index = loadedIndex.apply(dimension);
+            if (index != null) {
+                rebuilt.put(dimension, index);
+            }
+        }
+        // changes to dimensions that are still loading are included in the rebuild once they are done
+        Map<String, ShulkerBoxIndex> indices = new HashMap<>();
+        for (String dimension : changedChunks.keySet()) {
+            ShulkerBoxIndex index = loadedIndex.apply(dimension);
+            if (index != null) {
+                indices.put(dimension, index);
+            }
+        }
+
+        snapshot.set(snapshot.get().next(rebuilt, changedChunks, indices, droppedDimensions));
+        clearChanges();
+    }
+
+    /**
+     * Forget the collected changes and publish a version without any dimension, e.g. when leaving
+     * the world.
+     */
+    public void dropAll() {
+        clearChanges();
+        ShulkerBoxSnapshot current = snapshot.get();
+        if (!current.getDimensions().isEmpty()) {
+            snapshot.set(current.next(Map.of(), Map.of(), Map.of(), current.getDimensions()));
+        }
+    }
+
+    private void clearChanges() {
+        rebuiltDimensions.clear();
+        changedChunks.clear();
+        droppedDimensions.clear();
+    }
+}
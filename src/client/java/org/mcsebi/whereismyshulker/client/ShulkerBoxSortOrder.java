@@ -0,0 +1,58 @@
+package org.mcsebi.whereismyshulker.client;
+
+import java.util.Comparator;
+
+/**
+ * Orders of the sorted shulker box list, see {@code /shulker sort}.
+ * <p>
+ * Distance depends on where the player is and is selected on demand, see
+ * {@link ShulkerBoxChunkGrid#nearest}. The other orders are kept up to date by every
+ * {@link ShulkerBoxIndex}, their comparators here merge the per-dimension results and must agree
+ * with the ones used there.
+ */
+public enum ShulkerBoxSortOrder {
+    // closest first, only the dimension the player is in
+    DISTANCE(null),
+    // most recently placed first
+    AGE(Comparator.comparingLong(ShulkerBoxData::getTimestamp).reversed()),
+    // alphabetically by color, undyed boxes last, then most recent first
+    COLOR(Comparator.comparing(ShulkerBoxData::getColor, ShulkerBoxSortOrder::compareColors)
+            .thenComparing(AGE.comparator)),
+    // alphabetically by custom name ignoring case, unnamed boxes last, then most recent first
+    NAME(Comparator.comparing(ShulkerBoxData::getCustomName, ShulkerBoxSortOrder::compareNames)
+            .thenComparing(AGE.comparator));
+
+    private final Comparator<ShulkerBoxData> comparator;
+
+    ShulkerBoxSortOrder(Comparator<ShulkerBoxData> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @return Comparator of this order, null for {@link #DISTANCE}
+     */
+    public Comparator<ShulkerBoxData> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Compare colors alphabetically, the empty color of undyed boxes sorts last.
+     */
+    public static int compareColors(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return Boolean.compare(a.isEmpty(), b.isEmpty());
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Compare custom names alphabetically ignoring case, the empty name of unnamed boxes sorts last.
+     */
+    public static int compareNames(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return Boolean.compare(a.isEmpty(), b.isEmpty());
+        }
+        int result = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        return result != 0 ? result : a.compareTo(b);
+    }
+}
@@ -0,0 +1,264 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.MinecraftClient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the hot paths of the mod.
+ * <p>
+ * Recording costs two {@link System#nanoTime()} calls and a few atomic increments, so it is always
+ * on. Histograms use logarithmic buckets with 8 linear steps per power of two, which keeps
+ * percentiles within 12.5% of the real value at a fixed size of a few KiB per metric. Everything can
+ * be recorded from any thread.
+ */
+public final class ShulkerBoxStats {
+    private static final String STATS_DIRECTORY = ".whereismyshulker";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * Instrumented operations.
+     */
+    public enum Metric {
+        PLACE("Place callback"),
+        BREAK("Break callback"),
+        LOAD("Load partition"),
+        JOURNAL_WRITE("Journal write"),
+        SNAPSHOT_WRITE("Snapshot write"),
+        LIST_PAGE("List page lookup"),
+        LIST_COMMAND("/shulker command");
+
+        private final String label;
+
+        Metric(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[Metric.values().length];
+    private static final AtomicLong BYTES_WRITTEN = new AtomicLong();
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new Histogram();
+        }
+    }
+
+    // periodic dumps, only touched on the client thread
+    private static long dumpIntervalMs;
+    private static long lastDump;
+    private static Path dumpFile;
+
+    private ShulkerBoxStats() {
+    }
+
+    /**
+     * @return Start time to pass to {@link #record(Metric, long)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record one call of an operation.
+     *
+     * @param metric The operation
+     * @param startNanos Value of {@link #start()} taken before the operation
+     */
+    public static void record(Metric metric, long startNanos) {
+        HISTOGRAMS[metric.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param bytes Number of bytes written to disk
+     */
+    public static void addBytesWritten(long bytes) {
+        BYTES_WRITTEN.addAndGet(bytes);
+    }
+
+    public static void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        BYTES_WRITTEN.set(0);
+    }
+
+    /**
+     * Build a summary of all metrics that were recorded at least once.
+     *
+     * @return One line per metric, plus the number of bytes written
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            Histogram histogram = HISTOGRAMS[metric.ordinal()];
+            long count = histogram.count.get();
+            if (count == 0) {
+                continue;
+            }
+            lines.add(metric.getLabel() + ": " + count + "x, p50 " + formatNanos(histogram.percentile(0.5))
+                    + ", p99 " + formatNanos(histogram.percentile(0.99))
+                    + ", max " + formatNanos(histogram.max.get()));
+        }
+        lines.add("Bytes written: " + BYTES_WRITTEN.get());
+        return lines;
+    }
+
+    /**
+     * Write the current summary to the stats file of this session, on the IO thread.
+     *
+     * @return The file the summary is appended to
+     */
+    public static Path dump() {
+        if (dumpFile == null) {
+            Path directory = MinecraftClient.getInstance().runDirectory.toPath().resolve(STATS_DIRECTORY);
+            dumpFile = directory.resolve("stats-" + LocalDateTime.now().format(FILE_TIME) + ".txt");
+        }
+        Path file = dumpFile;
+        String version = FabricLoader.getInstance().getModContainer("whereismyshulker")
+                .map(mod -> mod.getMetadata().getVersion().getFriendlyString())
+                .orElse("unknown");
+        List<String> lines = new ArrayList<>();
+        lines.add("# " + LocalDateTime.now() + ", version " + version);
+        lines.addAll(report());
+
+        ShulkerBoxPersistence.runInBackground(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        return file;
+    }
+
+    /**
+     * Dump the summary periodically.
+     *
+     * @param intervalSeconds Seconds between dumps, 0 to stop
+     */
+    public static void setDumpInterval(int intervalSeconds) {
+        dumpIntervalMs = intervalSeconds * 1000L;
+        lastDump = System.currentTimeMillis();
+    }
+
+    /**
+     * Write a periodic dump if one is due.
+     *
+     * @param client Minecraft client instance
+     */
+    public static void onTick(MinecraftClient client) {
+        if (dumpIntervalMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastDump >= dumpIntervalMs) {
+            lastDump = now;
+            dump();
+        }
+    }
+
+    /**
+     * Format a duration for display.
+     *
+     * @param nanos Duration in nanoseconds
+     * @return Human readable duration
+     */
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        } else if (nanos < 1_000_000) {
+            return String.format("%.1f µs", nanos / 1_000.0);
+        }
+        return String.format("%.2f ms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Log-linear histogram of durations in nanoseconds.
+     */
+    private static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            max.set(0);
+        }
+
+        /**
+         * @param quantile Quantile between 0 and 1
+         * @return Upper bound of the bucket holding the quantile, capped at the maximum
+         */
+        long percentile(double quantile) {
+            long total = count.get();
+            long target = Math.max(1, (long) Math.ceil(total * quantile));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(lowerBound(i + 1) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            if (exponent >= 63) {
+                return Long.MAX_VALUE;
+            }
+            return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference counted dictionary mapping strings to small int codes.
+ * <p>
+ * Every distinct string is stored once no matter how many shulker boxes use it. Codes of strings
+ * that are no longer referenced are reused for new strings.
+ */
+public class ShulkerBoxStringTable {
+    private final Object2IntOpenHashMap<String> codes = new Object2IntOpenHashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final IntArrayList references = new IntArrayList();
+    private final IntArrayList freeCodes = new IntArrayList();
+
+    public ShulkerBoxStringTable() {
+        codes.defaultReturnValue(-1);
+    }
+
+    /**
+     * Get the code for a string and add a reference to it.
+     *
+     * @param value String to intern, null is treated as empty string
+     * @return Code of the string
+     */
+    public int acquire(String value) {
+        String key = value == null ? "" : value;
+        int code = codes.getInt(key);
+        if (code >= 0) {
+            references.set(code, references.getInt(code) + 1);
+            return code;
+        }
+
+        if (!freeCodes.isEmpty()) {
+            code = freeCodes.removeInt(freeCodes.size() - 1);
+            strings.set(code, key);
+            references.set(code, 1);
+        } else {
+            code = strings.size();
+            strings.add(key);
+            references.add(1);
+        }
+        codes.put(key, code);
+        return code;
+    }
+
+    /**
+     * Drop a reference to a code. The string is forgotten once nothing references it anymore.
+     *
+     * @param code Code returned by {@link #acquire(String)}
+     */
+    public void release(int code) {
+        int remaining = references.getInt(code) - 1;
+        references.set(code, remaining);
+        if (remaining == 0) {
+            codes.removeInt(strings.get(code));
+            strings.set(code, null);
+            freeCodes.add(code);
+        }
+    }
+
+    public String get(int code) {
+        return strings.get(code);
+    }
+
+    /**
+     * @return Number of distinct strings currently referenced
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    public void clear() {
+        codes.clear();
+        strings.clear();
+        references.clear();
+        freeCodes.clear();
+    }
+
+    /**
+     * Rough estimate of the heap used by this table, assuming compressed object pointers.
+     *
+     * @return Estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        long bytes = 0;
+        for (String value : strings) {
+            if (value != null) {
+                // String object plus its backing byte array
+                bytes += 24 + 16 + value.length();
+            }
+        }
+        // map entries, list slots and reference counts
+        return bytes + strings.size() * (16L + 4 + 4);
+    }
+}
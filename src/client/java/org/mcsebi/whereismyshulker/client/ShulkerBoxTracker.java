@@ -1,5 +1,6 @@
 package org.mcsebi.whereismyshulker.client;
 
+import it.unimi.dsi.fastutil.longs.LongList;
 import net.minecraft.block.Block;
 import net.minecraft.block.ShulkerBoxBlock;
 import net.minecraft.client.MinecraftClient;
@@ -13,24 +14,74 @@ import net.minecraft.util.WorldSavePath;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of placed shulker boxes, split into one {@link ShulkerBoxPartition} per dimension.
+ * <p>
+ * The partition of the dimension the player is in is loaded when joining a world or changing
+ * dimension, other partitions are loaded when they are first touched and dropped from memory again
+ * once they haven't been used for a while. Commands that cover all dimensions read one partition
+ * after another instead of loading all of them.
+ * <p>
+ * The tracker itself is only used on the client thread. Other threads read the tracked shulker boxes
+ * through {@link #getSnapshot()}, an immutable view that is republished at the end of every tick
+ * that changed something.
+ */
 public class ShulkerBoxTracker {
-    private static ShulkerBoxTracker instance;
-    private final List<ShulkerBoxData> shulkerBoxes = new ArrayList<>();
+    private static final String CSV_EXCHANGE_FILE = "shulker_boxes_export.csv";
+    private static final String EXCHANGE_DIRECTORY = "exports";
+    private static final String PARTITION_DIRECTORY = "dimensions";
+    private static final String HISTORY_DIRECTORY = "history";
+
+    // partitions of other dimensions are dropped from memory after this long without access
+    private static final long EVICT_AFTER_MS = 5 * 60 * 1000;
+    private static final long EVICT_CHECK_INTERVAL_MS = 20 * 1000;
+    // selections of partitions that aren't loaded, kept per partition for paging
+    private static final int MAX_CACHED_SELECTIONS = 8;
+    private static final int MIN_DETACHED_SELECTION = 100;
+    // order of the list, search and find pages, by placement time as imported and rescanned boxes are
+    // inserted long after they were placed
+    private static final Comparator<ShulkerBoxData> NEWEST_FIRST = ShulkerBoxSortOrder.AGE.comparator();
+
+    private final Map<String, ShulkerBoxPartition> partitions = new TreeMap<>();
     private Path csvFilePath;
+    private Path partitionDirectory;
+    private String currentDimension;
+    private ShulkerBoxHistory history;
+    // events that happened while the history is still being opened in the background
+    private final List<ShulkerBoxHistory.Event> pendingHistory = new ArrayList<>();
+
+    // true while the partition directory is being migrated and listed and the history opened in the background
+    private boolean opening;
+    private int openGeneration;
+    private int dataGeneration;
+    private long lastEvictCheck;
+
+    // page selections of partitions that aren't loaded, by dimension and query, see collectPage
+    private final Map<String, Map<String, ShulkerBoxIndex.Selection>> detachedSelections = new HashMap<>();
+    private int detachedGeneration;
+
+    // views for readers on any thread, published at the start of every tick
+    private final ShulkerBoxSnapshotPublisher publisher = new ShulkerBoxSnapshotPublisher();
 
     private ShulkerBoxTracker() {
     }
 
     public static ShulkerBoxTracker getInstance() {
-        if (instance == null) {
-            instance = new ShulkerBoxTracker();
-        }
-        return instance;
+        return Holder.INSTANCE;
+    }
+
+    // initialized on first use, the class loader makes that thread-safe
+    private static final class Holder {
+        private static final ShulkerBoxTracker INSTANCE = new ShulkerBoxTracker();
     }
 
     public void onWorldLoad() {
@@ -39,17 +90,105 @@ public class ShulkerBoxTracker {
             return;
         }
 
+        // make sure nothing from a previous world is still queued
+        onWorldUnload();
+
         csvFilePath = getCsvPath(client);
-        loadFromCsv();
+        partitionDirectory = csvFilePath.resolveSibling(PARTITION_DIRECTORY);
+        openPartitions();
+
+        // the current dimension is loaded right away, the others on demand
+        currentDimension = client.world.getRegistryKey().getValue().toString();
+        partition(currentDimension).loadAsync();
     }
     
     public void onWorldUnload() {
-        shulkerBoxes.clear();
+        if (history == null && !pendingHistory.isEmpty() && csvFilePath != null) {
+            // the history is still being opened, add what happened meanwhile once that is done
+            List<ShulkerBoxHistory.Event> events = List.copyOf(pendingHistory);
+            Path historyDirectory = csvFilePath.resolveSibling(HISTORY_DIRECTORY);
+            ShulkerBoxPersistence.runAndWait(() -> ShulkerBoxHistory.appendAll(historyDirectory, events));
+        }
+        // flushes pending writes and changes buffered for loads that are still running, discards those loads
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            partition.close();
+        }
+        partitions.clear();
+        openGeneration++;
+        opening = false;
+        dataGeneration++;
+        detachedSelections.clear();
+        detachedGeneration++;
+
+        publisher.dropAll();
+
         csvFilePath = null;
+        partitionDirectory = null;
+        currentDimension = null;
+        history = null;
+        pendingHistory.clear();
     }
 
     /**
-     * Get the CSV file path based on whether in singleplayer or multiplayer.
+     * Load the partition of a newly entered dimension, drop partitions that haven't been used for a
+     * while and publish the changes of the last tick.
+     *
+     * @param client Minecraft client instance
+     */
+    public void onTick(MinecraftClient client) {
+        publisher.publish(this::loadedIndex);
+        if (partitionDirectory == null || client.world == null) {
+            return;
+        }
+
+        String dimension = client.world.getRegistryKey().getValue().toString();
+        if (!dimension.equals(currentDimension)) {
+            currentDimension = dimension;
+            partition(dimension).loadAsync();
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastEvictCheck < EVICT_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastEvictCheck = now;
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (partition.isLoaded() && !partition.getDimension().equals(currentDimension)
+                    && now - partition.getLastAccess() >= EVICT_AFTER_MS) {
+                partition.evict();
+                publisher.markDropped(partition.getDimension());
+            }
+        }
+    }
+
+    /**
+     * Get the tracked shulker boxes of all loaded dimensions as of the end of the last tick. Can be
+     * called from any thread and never blocks, the returned view doesn't change.
+     *
+     * @return Immutable view of the tracked shulker boxes
+     */
+    public ShulkerBoxSnapshot getSnapshot() {
+        return publisher.get();
+    }
+
+    /**
+     * @return True while shulker boxes are still being loaded
+     */
+    public boolean isLoading() {
+        if (opening) {
+            return true;
+        }
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (partition.isLoading()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the CSV file path based on whether in singleplayer or multiplayer. The other storage files
+     * are placed in the same directory, which is created on the first write.
      *
      * @param client Minecraft client instance
      * @return Path to the CSV file
@@ -68,12 +207,6 @@ public class ShulkerBoxTracker {
             Path minecraftDir = client.runDirectory.toPath();
             Path whereismyshulkerDir = minecraftDir.resolve(".whereismyshulker").resolve(serverAddress);
 
-            try {
-                Files.createDirectories(whereismyshulkerDir);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
             return whereismyshulkerDir.resolve("shulker_boxes.csv");
         } else {
             // Singleplayer - store in world/data/
@@ -86,12 +219,6 @@ public class ShulkerBoxTracker {
                 }
 
                 Path dataDir = worldDir.resolve("data");
-                try {
-                    Files.createDirectories(dataDir);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-
                 return dataDir.resolve("shulker_boxes.csv");
             }
         }
@@ -99,69 +226,236 @@ public class ShulkerBoxTracker {
         // Fallback to .minecraft/.whereismyshulker/default/
         Path minecraftDir = client.runDirectory.toPath();
         Path whereismyshulkerDir = minecraftDir.resolve(".whereismyshulker").resolve("default");
-        try {
-            Files.createDirectories(whereismyshulkerDir);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         return whereismyshulkerDir.resolve("shulker_boxes.csv");
     }
 
-    private void loadFromCsv() {
-        shulkerBoxes.clear();
+    /**
+     * Migrate storage files of older versions, find the stored partitions and open the history on
+     * the IO thread. Partition loads queued afterwards run after this.
+     */
+    private void openPartitions() {
+        int generation = ++openGeneration;
+        opening = true;
+        Path dataDirectory = csvFilePath.getParent();
+        Path directory = partitionDirectory;
+        Path historyDirectory = csvFilePath.resolveSibling(HISTORY_DIRECTORY);
+
+        ShulkerBoxPersistence.runInBackground(() -> {
+            migrateToPartitions(dataDirectory, directory);
+            List<String> dimensions = findPartitions(directory);
+            ShulkerBoxHistory openedHistory = ShulkerBoxHistory.open(historyDirectory);
+            MinecraftClient.getInstance().execute(() -> {
+                if (generation != openGeneration) {
+                    // world was left in the meantime
+                    return;
+                }
+                for (String dimension : dimensions) {
+                    partition(dimension);
+                }
+                history = openedHistory;
+                for (ShulkerBoxHistory.Event event : pendingHistory) {
+                    history.record(event.type(), event.box(), event.timestamp());
+                }
+                pendingHistory.clear();
+                opening = false;
+            });
+        });
+    }
 
-        if (csvFilePath == null || !Files.exists(csvFilePath)) {
+    /**
+     * Split the single snapshot and journal of older versions into dimension partitions. The
+     * partitions are written to a temporary directory first, so an interrupted migration is
+     * simply done again. The old snapshot is kept as backup.
+     */
+    private static void migrateToPartitions(Path dataDirectory, Path partitionDirectory) {
+        if (Files.isDirectory(partitionDirectory)) {
+            return;
+        }
+        ShulkerBoxJournal legacy = new ShulkerBoxJournal(dataDirectory);
+        if (!legacy.exists()) {
             return;
         }
 
-        try (BufferedReader reader = Files.newBufferedReader(csvFilePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                ShulkerBoxData data = ShulkerBoxData.fromCsv(line);
-                if (data != null) {
-                    shulkerBoxes.add(data);
-                }
+        ShulkerBoxIndex boxes = new ShulkerBoxIndex();
+        legacy.load(boxes);
+        Map<String, List<ShulkerBoxData>> byDimension = new HashMap<>();
+        boxes.forEach(data -> byDimension.computeIfAbsent(data.getDimension(), k -> new ArrayList<>()).add(data));
+
+        Path temporaryDirectory = partitionDirectory.resolveSibling(partitionDirectory.getFileName() + ".tmp");
+        try {
+            deleteDirectory(temporaryDirectory);
+            Files.createDirectories(temporaryDirectory);
+            for (Map.Entry<String, List<ShulkerBoxData>> entry : byDimension.entrySet()) {
+                ShulkerBoxBinaryFormat.write(temporaryDirectory.resolve(
+                        ShulkerBoxPartition.fileName(entry.getKey()) + ShulkerBoxJournal.SNAPSHOT_EXTENSION), entry.getValue());
             }
+            Files.move(temporaryDirectory, partitionDirectory, StandardCopyOption.ATOMIC_MOVE);
+            ShulkerBoxBinaryFormat.syncDirectory(partitionDirectory.getParent());
+            legacy.retire();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void saveToCsv() {
-        if (csvFilePath == null) {
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
             return;
         }
-
-        try {
-            // Ensure parent directory exists
-            Files.createDirectories(csvFilePath.getParent());
-
-            // Write all shulker boxes to CSV
-            try (BufferedWriter writer = Files.newBufferedWriter(csvFilePath,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                for (ShulkerBoxData data : shulkerBoxes) {
-                    writer.write(data.toCsv());
-                    writer.newLine();
-                }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
             }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * @return Dimensions that have a snapshot, journal or log in the partition directory
+     */
+    private static List<String> findPartitions(Path partitionDirectory) {
+        List<String> dimensions = new ArrayList<>();
+        if (!Files.isDirectory(partitionDirectory)) {
+            return dimensions;
+        }
+        try (Stream<Path> files = Files.list(partitionDirectory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(ShulkerBoxJournal.SNAPSHOT_EXTENSION)
+                            || name.endsWith(ShulkerBoxJournal.JOURNAL_EXTENSION)
+                            || name.endsWith(ShulkerBoxWriteAheadLog.EXTENSION))
+                    .map(name -> ShulkerBoxPartition.dimensionOf(name.substring(0, name.lastIndexOf('.'))))
+                    .distinct()
+                    .forEach(dimensions::add);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return dimensions;
     }
 
     /**
-     * Reset shulker box data.
+     * Get the partition of a dimension, creating it (unloaded) if necessary.
+     */
+    private ShulkerBoxPartition partition(String dimension) {
+        return partitions.computeIfAbsent(dimension,
+                d -> new ShulkerBoxPartition(partitionDirectory, d, () -> {
+                    dataGeneration++;
+                    publisher.markRebuilt(d);
+                    // the partition can change now, selections read before are outdated
+                    detachedSelections.remove(d);
+                    detachedGeneration++;
+                }));
+    }
+
+    /**
+     * @return The loaded shulker boxes of a dimension, or null if its partition isn't loaded
+     */
+    private ShulkerBoxIndex loadedIndex(String dimension) {
+        ShulkerBoxPartition partition = partitions.get(dimension);
+        return partition != null ? partition.getIndex() : null;
+    }
+
+    /**
+     * @return Dimensions with tracked shulker boxes, loaded or not
+     * @throws IOException If no world is loaded or shulker boxes are still loading
+     */
+    public List<String> getDimensions() throws IOException {
+        checkLoaded();
+        return new ArrayList<>(partitions.keySet());
+    }
+
+    /**
+     * Read the tracked shulker boxes of one dimension, e.g. for an export that goes through one
+     * dimension after another. A loaded partition is copied right away, one that isn't loaded is read
+     * on the IO thread without being kept in memory.
+     *
+     * @param dimension Dimension identifier
+     * @return Completes with the shulker boxes of the dimension in insertion order, empty if there are none
+     */
+    public CompletableFuture<List<ShulkerBoxData>> readShulkerBoxes(String dimension) {
+        ShulkerBoxPartition partition = partitions.get(dimension);
+        if (partition == null) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        if (partition.isLoaded()) {
+            return CompletableFuture.completedFuture(partition.getIndex().toList());
+        }
+        return partition.readDetached(ShulkerBoxIndex::toList);
+    }
+
+    /**
+     * @return shulker_boxes_export.csv next to the storage files of the current world
+     * @throws IOException If no world is loaded
+     */
+    public Path getCsvExchangeFile() throws IOException {
+        checkLoaded();
+        return csvFilePath.resolveSibling(CSV_EXCHANGE_FILE);
+    }
+
+    /**
+     * @param client Minecraft client instance
+     * @return Directory for export files shared by all worlds and servers, .minecraft/.whereismyshulker/exports/
+     */
+    public static Path getExchangeDirectory(MinecraftClient client) {
+        return client.runDirectory.toPath().resolve(".whereismyshulker").resolve(EXCHANGE_DIRECTORY);
+    }
+
+    /**
+     * Merge imported shulker boxes into the tracked ones by dimension and position. An imported entry
+     * replaces a tracked one unless that was placed later, contents recorded for the tracked one are
+     * kept if the imported entry has none. Partitions that aren't loaded are loaded in the background
+     * and merged into once they are done.
+     *
+     * @param imported Imported shulker boxes
+     * @return Completes on the client thread with the number of shulker boxes that were added or changed
+     */
+    public CompletableFuture<Integer> mergeImported(List<ShulkerBoxData> imported) {
+        CompletableFuture<Integer> merged = CompletableFuture.completedFuture(0);
+        if (partitionDirectory == null) {
+            return merged;
+        }
+        Map<String, List<ShulkerBoxData>> byDimension = new HashMap<>();
+        for (ShulkerBoxData data : imported) {
+            byDimension.computeIfAbsent(data.getDimension(), k -> new ArrayList<>()).add(data);
+        }
+        for (Map.Entry<String, List<ShulkerBoxData>> entry : byDimension.entrySet()) {
+            String dimension = entry.getKey();
+            merged = merged.thenCombine(partition(dimension).mergeAll(entry.getValue()), (count, changed) -> {
+                for (ShulkerBoxData data : changed) {
+                    publisher.markChanged(dimension, data.getPosition().asLong());
+                }
+                return count + changed.size();
+            });
+        }
+        return merged;
+    }
+
+    private void checkLoaded() throws IOException {
+        if (csvFilePath == null) {
+            throw new IOException("No world loaded");
+        }
+        if (isLoading()) {
+            throw new IOException("Shulker boxes are still loading");
+        }
+    }
+
+    /**
+     * Reset shulker box data. Partitions that aren't loaded are rewritten on the IO thread without
+     * loading them.
      *
      * @param resetAll If true, remove all shulker boxes. If false, only remove undyed shulker boxes.
      */
     public void resetShulkerBoxes(boolean resetAll) {
-        if(resetAll) {
-            shulkerBoxes.clear();
-        } else {
-            // only remove undyed shulker boxes
-            shulkerBoxes.removeIf(data -> data.getColor().isEmpty());
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (resetAll) {
+                partition.clear();
+            } else {
+                // only remove undyed shulker boxes
+                partition.removeIf(data -> data.getColor().isEmpty());
+            }
+            publisher.markRebuilt(partition.getDimension());
         }
-        saveToCsv();
+        // selections read before are outdated, the ones read from now on run after the rewrite
+        detachedSelections.clear();
+        detachedGeneration++;
     }
 
     /**
@@ -173,9 +467,10 @@ public class ShulkerBoxTracker {
      * @param customName Custom name of the shulker box, if any
      */
     public void onShulkerBoxPlaced(BlockPos pos, Block block, World world, String customName) {
-        if (!(block instanceof ShulkerBoxBlock)) {
+        if (!(block instanceof ShulkerBoxBlock) || partitionDirectory == null) {
             return;
         }
+        long start = ShulkerBoxStats.start();
 
         // Get shulker box color
         String color = getShulkerBoxColor(block);
@@ -183,20 +478,147 @@ public class ShulkerBoxTracker {
         // Get dimension name
         String dimension = world.getRegistryKey().getValue().toString();
 
-        // Add to list
-        ShulkerBoxData data = new ShulkerBoxData(pos, dimension, color, System.currentTimeMillis(), customName);
-        shulkerBoxes.add(data);
+        ShulkerBoxData data = new ShulkerBoxData(pos.toImmutable(), dimension, color, System.currentTimeMillis(), customName);
+        partition(dimension).put(data);
+        publisher.markChanged(dimension, data.getPosition().asLong());
+        recordHistory(ShulkerBoxHistory.Type.PLACED, data);
+        ShulkerBoxStats.record(ShulkerBoxStats.Metric.PLACE, start);
+    }
+
+    /**
+     * Called when a shulker box is broken in the world.
+     *
+     * @param pos Position of the broken shulker box
+     * @param world The world where the block was broken
+     */
+    public void onShulkerBoxBroken(BlockPos pos, World world) {
+        if (partitionDirectory == null) {
+            return;
+        }
+        long start = ShulkerBoxStats.start();
+        String dimension = world.getRegistryKey().getValue().toString();
+        recordRemoval(dimension, pos.asLong());
+        partition(dimension).remove(pos.asLong());
+        publisher.markChanged(dimension, pos.asLong());
+        ShulkerBoxStats.record(ShulkerBoxStats.Metric.BREAK, start);
+    }
+
+    /**
+     * Called when the player closes the screen of a shulker box, with what was inside.
+     *
+     * @param pos Position of the shulker box
+     * @param world The world of the shulker box
+     * @param contents Items in the shulker box
+     */
+    public void onShulkerBoxContents(BlockPos pos, World world, ShulkerBoxContents contents) {
+        String dimension = world.getRegistryKey().getValue().toString();
+        ShulkerBoxPartition partition = partitions.get(dimension);
+        if (partition != null && partition.setContents(pos.asLong(), contents)) {
+            publisher.markChanged(dimension, pos.asLong());
+        }
+    }
+
+    /**
+     * Add shulker boxes found by a rescan of the saved world. Positions that are already tracked keep
+     * their entry, as it knows when the box was placed. A partition that isn't loaded is loaded in the
+     * background and the boxes are added once it is done.
+     *
+     * @param dimension Dimension the shulker boxes are in
+     * @param found Shulker boxes found in the region files
+     * @return Completes on the client thread with the number of shulker boxes that were not tracked
+     * before, once they are added
+     */
+    public CompletableFuture<Integer> addRescannedShulkerBoxes(String dimension, List<ShulkerBoxData> found) {
+        if (partitionDirectory == null || found.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return partition(dimension).putAllIfAbsent(found).thenApply(added -> {
+            for (ShulkerBoxData data : added) {
+                publisher.markChanged(dimension, data.getPosition().asLong());
+            }
+            return added.size();
+        });
+    }
+
+    /**
+     * Remove shulker boxes that are no longer in the world, e.g. after an explosion or a piston moved them.
+     *
+     * @param dimension Dimension the positions are in
+     * @param packedPositions Positions to remove, see {@link BlockPos#asLong()}
+     */
+    public void removeMissingShulkerBoxes(String dimension, LongList packedPositions) {
+        ShulkerBoxPartition partition = partitions.get(dimension);
+        if (partition != null) {
+            for (int i = 0; i < packedPositions.size(); i++) {
+                recordRemoval(dimension, packedPositions.getLong(i));
+            }
+            partition.removeAll(packedPositions);
+            for (int i = 0; i < packedPositions.size(); i++) {
+                publisher.markChanged(dimension, packedPositions.getLong(i));
+            }
+        }
+    }
+
+    /**
+     * Add the removal of a shulker box to the history, with what was tracked about it if its
+     * partition is loaded.
+     */
+    private void recordRemoval(String dimension, long packedPos) {
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        ShulkerBoxData removed = boxes != null ? boxes.get(dimension, packedPos) : null;
+        if (removed == null) {
+            removed = new ShulkerBoxData(BlockPos.fromLong(packedPos), dimension, "Unknown", 0, "");
+        }
+        recordHistory(ShulkerBoxHistory.Type.REMOVED, removed);
+    }
 
-        // Save to CSV
-        saveToCsv();
+    /**
+     * Add an event to the history, or keep it until the history is open.
+     */
+    private void recordHistory(ShulkerBoxHistory.Type type, ShulkerBoxData box) {
+        if (history != null) {
+            history.record(type, box);
+        } else {
+            pendingHistory.add(new ShulkerBoxHistory.Event(System.currentTimeMillis(), type, box));
+        }
     }
 
-    public void onShulkerBoxBroken(BlockPos pos) {
-        // Remove any shulker box at this position
-        shulkerBoxes.removeIf(data -> data.getPosition().equals(pos));
+    /**
+     * @return History of placed and removed shulker boxes of the current world
+     * @throws IOException If no world is loaded or the history is still being opened
+     */
+    public ShulkerBoxHistory getHistory() throws IOException {
+        if (history == null) {
+            throw new IOException(csvFilePath == null ? "No world loaded" : "History is still loading");
+        }
+        return history;
+    }
 
-        // Save to CSV
-        saveToCsv();
+    /**
+     * Get one page of the history since a point in time, newest first. Archive segments are read on
+     * the IO thread, see {@link ShulkerBoxHistory#since}.
+     *
+     * @param since Start of the range, milliseconds since the epoch
+     * @param page Page number starting at 1
+     * @param pageSize Number of events per page
+     * @param callback Receives the page on the client thread, not at all if the world is left in the meantime
+     * @throws IOException If no world is loaded or the history is still being opened
+     */
+    public void getHistoryPage(long since, int page, int pageSize, Consumer<ShulkerBoxHistory.Page> callback)
+            throws IOException {
+        int generation = openGeneration;
+        getHistory().since(since, page, pageSize).whenCompleteAsync((result, error) -> {
+            if (generation != openGeneration) {
+                // world was left in the meantime
+                return;
+            }
+            if (error != null) {
+                error.printStackTrace();
+                callback.accept(new ShulkerBoxHistory.Page(List.of(), 0));
+                return;
+            }
+            callback.accept(result);
+        }, MinecraftClient.getInstance());
     }
 
     /**
@@ -206,10 +628,19 @@ public class ShulkerBoxTracker {
      * @return Color name as a string
      */
     private String getShulkerBoxColor(Block block) {
-        String blockName = block.getTranslationKey();
-        // Extract color from translation key like "block.minecraft.red_shulker_box"
+        return getShulkerBoxColor(block.getTranslationKey());
+    }
+
+    /**
+     * Get the color of a shulker box from its translation key or block id.
+     *
+     * @param blockName Translation key like "block.minecraft.red_shulker_box" or id like "minecraft:red_shulker_box"
+     * @return Color name as a string
+     */
+    static String getShulkerBoxColor(String blockName) {
+        // Extract color from the last part of the name
         if (blockName.contains("shulker_box")) {
-            String[] parts = blockName.split("\\.");
+            String[] parts = blockName.split("[.:]");
             if (parts.length > 0) {
                 String lastPart = parts[parts.length - 1];
                 if (lastPart.equals("shulker_box")) {
@@ -230,7 +661,7 @@ public class ShulkerBoxTracker {
      * @param str Input string
      * @return
      */
-    private String capitalize(String str) {
+    private static String capitalize(String str) {
         if (str == null || str.isEmpty()) {
             return str;
         }
@@ -248,14 +679,340 @@ public class ShulkerBoxTracker {
         return result.toString().trim();
     }
 
-    public List<ShulkerBoxData> getShulkerBoxes() {
-        // Return in reverse order (most recent first)
-        List<ShulkerBoxData> reversed = new ArrayList<>(shulkerBoxes);
-        Collections.reverse(reversed);
-        return reversed;
+    /**
+     * Check whether a shulker box is tracked at the given position.
+     *
+     * @param pos Block position
+     * @param world The world to check in
+     * @return True if a shulker box is tracked there
+     */
+    public boolean isTracked(BlockPos pos, World world) {
+        String dimension = world.getRegistryKey().getValue().toString();
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        return boxes != null && boxes.contains(dimension, pos.asLong());
     }
 
-    public int getShulkerBoxCount() {
-        return shulkerBoxes.size();
+    /**
+     * Find the tracked shulker boxes closest to a position in the same world.
+     *
+     * @param pos Position to search from
+     * @param world The world to search in
+     * @param k Maximum number of results
+     * @param radius Maximum horizontal distance in blocks
+     * @return Shulker boxes, closest first
+     */
+    public List<ShulkerBoxData> getNearestShulkerBoxes(BlockPos pos, World world, int k, int radius) {
+        String dimension = world.getRegistryKey().getValue().toString();
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        return boxes != null ? boxes.nearest(dimension, pos, k, radius) : List.of();
+    }
+
+    /**
+     * Get the tracked positions inside a chunk.
+     *
+     * @param dimension Dimension identifier
+     * @param chunkX Chunk x coordinate
+     * @param chunkZ Chunk z coordinate
+     * @return Packed positions in that chunk. Must not be modified and is only valid until the next change.
+     */
+    public LongList getTrackedInChunk(String dimension, int chunkX, int chunkZ) {
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        return boxes != null ? boxes.getChunkGrid().getChunk(dimension, chunkX, chunkZ) : LongList.of();
+    }
+
+    /**
+     * Visit every chunk holding tracked shulker boxes.
+     *
+     * @param dimension Dimension identifier
+     * @param action Called with the packed chunk position
+     */
+    public void forEachTrackedChunk(String dimension, LongConsumer action) {
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        if (boxes != null) {
+            boxes.getChunkGrid().forEachChunk(dimension, action);
+        }
+    }
+
+    /**
+     * @return Number that changes whenever tracked data is loaded or discarded
+     */
+    public int getDataGeneration() {
+        return dataGeneration;
+    }
+
+    /**
+     * Get one page of shulker boxes over all dimensions, most recently placed first.
+     *
+     * @param page Page number starting at 1
+     * @param pageSize Number of entries per page
+     * @param callback Receives the entries on that page (empty if the page doesn't exist) and the total
+     *                 count on the client thread, see {@link #collectPage}
+     */
+    public void getShulkerBoxPage(int page, int pageSize, Consumer<Page> callback) {
+        long start = ShulkerBoxStats.start();
+        PageQuery list = new PageQuery("list",
+                (index, limit) -> new ShulkerBoxIndex.Selection(index.sorted(ShulkerBoxSortOrder.AGE, limit), index.size()),
+                data -> true, NEWEST_FIRST);
+        collectPage(list, page, pageSize, result -> {
+            ShulkerBoxStats.record(ShulkerBoxStats.Metric.LIST_PAGE, start);
+            callback.accept(result);
+        });
+    }
+
+    /**
+     * Search the custom names of all tracked shulker boxes. A box matches if every word of the query
+     * is the start of a word in its name, ignoring case.
+     *
+     * @param query Search text
+     * @param page Page number starting at 1
+     * @param pageSize Number of entries per page
+     * @param callback Receives the matches on that page, most recently placed first, and the total
+     *                 number of matches on the client thread
+     */
+    public void searchShulkerBoxes(String query, int page, int pageSize, Consumer<Page> callback) {
+        String[] tokens = ShulkerBoxNameIndex.tokenize(query);
+        collectPage(new PageQuery("search " + String.join(" ", tokens),
+                (index, limit) -> ShulkerBoxIndex.select(index.searchByName(query), NEWEST_FIRST, limit),
+                data -> tokens.length > 0
+                        && ShulkerBoxNameIndex.matches(ShulkerBoxNameIndex.tokenize(data.getCustomName()), tokens),
+                NEWEST_FIRST), page, pageSize, callback);
+    }
+
+    /**
+     * Find the shulker boxes that held an item the last time they were opened.
+     *
+     * @param item Item id, e.g. minecraft:diamond
+     * @param page Page number starting at 1
+     * @param pageSize Number of entries per page
+     * @param callback Receives the matches on that page, most recently placed first, and the total
+     *                 number of matches on the client thread
+     */
+    public void findShulkerBoxes(String item, int page, int pageSize, Consumer<Page> callback) {
+        collectPage(new PageQuery("find " + item,
+                (index, limit) -> ShulkerBoxIndex.select(index.findByItem(item), NEWEST_FIRST, limit),
+                data -> data.hasContents() && data.getContents().countOf(item) > 0, NEWEST_FIRST), page, pageSize, callback);
+    }
+
+    /**
+     * Get one page of shulker boxes in a sorted order. Every partition only provides as many entries
+     * as needed to fill the page, taken from its maintained order, see {@link ShulkerBoxIndex#sorted}.
+     * Distance is only defined in the dimension of the player, the closest entries there are
+     * selected from the chunk buckets with a bounded heap.
+     *
+     * @param order Sort order
+     * @param pos Position of the player, for {@link ShulkerBoxSortOrder#DISTANCE}
+     * @param world World of the player, for {@link ShulkerBoxSortOrder#DISTANCE}
+     * @param page Page number starting at 1
+     * @param pageSize Number of entries per page
+     * @param callback Receives the entries on that page (empty if the page doesn't exist) and the total
+     *                 count on the client thread
+     */
+    public void getSortedShulkerBoxes(ShulkerBoxSortOrder order, BlockPos pos, World world, int page, int pageSize,
+                                      Consumer<Page> callback) {
+        if (order != ShulkerBoxSortOrder.DISTANCE) {
+            collectPage(new PageQuery("sort " + order,
+                    (index, limit) -> new ShulkerBoxIndex.Selection(index.sorted(order, limit), index.size()),
+                    data -> true, order.comparator()), page, pageSize, callback);
+            return;
+        }
+
+        String dimension = world.getRegistryKey().getValue().toString();
+        ShulkerBoxIndex boxes = loadedIndex(dimension);
+        if (boxes == null || page < 1) {
+            callback.accept(new Page(List.of(), boxes != null ? boxes.size(dimension) : 0));
+            return;
+        }
+        int limit = (int) Math.min((long) page * pageSize, Integer.MAX_VALUE);
+        List<ShulkerBoxData> closest = boxes.nearest(dimension, pos, limit, Integer.MAX_VALUE);
+        callback.accept(slice(closest, boxes.size(dimension), page, pageSize));
+    }
+
+    /**
+     * Select the first entries of every partition and merge them into one page.
+     * <p>
+     * Loaded partitions are selected from their maintained indices right away. Partitions that aren't
+     * loaded are read on the IO thread into a detached index and scanned for just the entries the page
+     * needs, see {@link ShulkerBoxIndex#select}. Such a selection is kept, with entries to spare, until
+     * the partition is loaded again, so the following pages are served from memory instead of reading
+     * the partition for every page.
+     *
+     * @param callback Receives the page on the client thread, not at all if the world is left in the meantime
+     */
+    private void collectPage(PageQuery query, int page, int pageSize, Consumer<Page> callback) {
+        if (page < 1) {
+            callback.accept(new Page(List.of(), 0));
+            return;
+        }
+        int limit = (int) Math.min((long) page * pageSize, Integer.MAX_VALUE);
+        int generation = openGeneration;
+        int cacheGeneration = detachedGeneration;
+        MinecraftClient client = MinecraftClient.getInstance();
+
+        List<CompletableFuture<ShulkerBoxIndex.Selection>> selections = new ArrayList<>();
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (partition.isLoaded()) {
+                ShulkerBoxIndex.Selection selected = query.indexed().apply(partition.getIndex(), limit);
+                // copied, the views are only valid until the index changes
+                selections.add(CompletableFuture.completedFuture(
+                        new ShulkerBoxIndex.Selection(new ArrayList<>(selected.head()), selected.totalCount())));
+                continue;
+            }
+
+            Map<String, ShulkerBoxIndex.Selection> cache =
+                    detachedSelections.computeIfAbsent(partition.getDimension(), k -> newSelectionCache());
+            ShulkerBoxIndex.Selection cached = cache.get(query.key());
+            if (cached != null && (cached.head().size() >= limit || cached.head().size() == cached.totalCount())) {
+                selections.add(CompletableFuture.completedFuture(cached));
+                continue;
+            }
+            // twice as many as needed, so the next pages don't read the partition again
+            int readLimit = (int) Math.min(Math.max(2L * limit, MIN_DETACHED_SELECTION), Integer.MAX_VALUE);
+            selections.add(partition.readDetached(index -> index.select(query.filter(), query.order(), readLimit))
+                    .thenApplyAsync(selected -> {
+                        if (cacheGeneration == detachedGeneration) {
+                            cache.put(query.key(), selected);
+                        }
+                        return selected;
+                    }, client));
+        }
+
+        Comparator<ShulkerBoxData> order = query.order();
+        CompletableFuture.allOf(selections.toArray(new CompletableFuture<?>[0])).whenCompleteAsync((ignored, error) -> {
+            if (generation != openGeneration) {
+                // world was left in the meantime
+                return;
+            }
+            if (error != null) {
+                error.printStackTrace();
+                callback.accept(new Page(List.of(), 0));
+                return;
+            }
+            List<List<ShulkerBoxData>> heads = new ArrayList<>();
+            int totalCount = 0;
+            for (CompletableFuture<ShulkerBoxIndex.Selection> selection : selections) {
+                ShulkerBoxIndex.Selection selected = selection.join();
+                totalCount += selected.totalCount();
+                if (!selected.head().isEmpty()) {
+                    heads.add(selected.head());
+                }
+            }
+            callback.accept(slice(mergeSorted(heads, order, limit), totalCount, page, pageSize));
+        }, client);
+    }
+
+    private static Map<String, ShulkerBoxIndex.Selection> newSelectionCache() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ShulkerBoxIndex.Selection> eldest) {
+                return size() > MAX_CACHED_SELECTIONS;
+            }
+        };
+    }
+
+    private static Page slice(List<ShulkerBoxData> first, int totalCount, int page, int pageSize) {
+        int start = (page - 1) * pageSize;
+        if (start >= first.size()) {
+            return new Page(List.of(), totalCount);
+        }
+        return new Page(first.subList(start, Math.min(start + pageSize, first.size())), totalCount);
+    }
+
+    /**
+     * Merge lists that are each sorted in the same order.
+     *
+     * @param lists Lists to merge
+     * @param order Order of the lists
+     * @param limit Maximum number of entries to return
+     * @return The first entries of all lists in that order
+     */
+    private static List<ShulkerBoxData> mergeSorted(List<List<ShulkerBoxData>> lists, Comparator<ShulkerBoxData> order,
+                                                    int limit) {
+        if (lists.isEmpty()) {
+            return List.of();
+        }
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+
+        int[] cursors = new int[lists.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(lists.size(), (a, b) -> order.compare(
+                lists.get(a).get(cursors[a]), lists.get(b).get(cursors[b])));
+        for (int i = 0; i < lists.size(); i++) {
+            heads.add(i);
+        }
+
+        List<ShulkerBoxData> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int list = heads.poll();
+            merged.add(lists.get(list).get(cursors[list]++));
+            if (cursors[list] < lists.get(list).size()) {
+                heads.add(list);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return Estimated heap usage of the loaded partitions
+     */
+    public ShulkerBoxIndex.MemoryReport getMemoryReport() {
+        int entries = 0;
+        long columnBytes = 0, indexBytes = 0, stringBytes = 0, objectBytes = 0;
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (!partition.isLoaded()) {
+                continue;
+            }
+            ShulkerBoxIndex.MemoryReport report = partition.getIndex().getMemoryReport();
+            entries += report.entries();
+            columnBytes += report.columnBytes();
+            indexBytes += report.indexBytes();
+            stringBytes += report.stringBytes();
+            objectBytes += report.objectBytes();
+        }
+        return new ShulkerBoxIndex.MemoryReport(entries, columnBytes, indexBytes, stringBytes, objectBytes);
+    }
+
+    /**
+     * @return Number of dimensions with tracked shulker boxes
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @return Number of dimensions whose shulker boxes are currently in memory
+     */
+    public int getLoadedPartitionCount() {
+        int count = 0;
+        for (ShulkerBoxPartition partition : partitions.values()) {
+            if (partition.isLoaded()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * What a page lists, for loaded and detached partitions.
+     *
+     * @param key Identifies the query among the kept selections of a partition
+     * @param indexed Selects the first entries (at most the given limit) from a loaded partition's indices
+     * @param filter Which entries a detached partition selects
+     * @param order Order of the selected entries, the same in every partition so their first entries can be merged
+     */
+    private record PageQuery(String key, BiFunction<ShulkerBoxIndex, Integer, ShulkerBoxIndex.Selection> indexed,
+                             Predicate<ShulkerBoxData> filter, Comparator<ShulkerBoxData> order) {
+    }
+
+    /**
+     * One page of shulker boxes.
+     *
+     * @param entries Shulker boxes on the page, read-only
+     * @param totalCount Number of shulker boxes on all pages
+     */
+    public record Page(List<ShulkerBoxData> entries, int totalCount) {
+        public int pageCount(int pageSize) {
+            return (totalCount + pageSize - 1) / pageSize;
+        }
     }
 }
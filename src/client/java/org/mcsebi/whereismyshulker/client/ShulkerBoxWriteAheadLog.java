@@ -0,0 +1,314 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Checksummed write-ahead log of placements and removals since the last snapshot.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * header: int magic "WIMW", int version, long generation
+ * frames: int payloadLength, int crc32(payload), payload
+ * add:    byte 1, int x, int y, int z, long timestamp, string dimension, string color, string name
+ * remove: byte 2, int x, int y, int z, string dimension
+ * contents: byte 3, int x, int y, int z, string dimension, int itemCount, itemCount times (string item, int count)
+ * string: int byteLength, UTF-8 bytes
+ * </pre>
+ * Every snapshot remembers the generation of the log it includes. A log whose generation is not
+ * newer than the snapshot was already folded into it and is ignored, so a crash between writing a
+ * snapshot and deleting the log can't apply records twice.
+ * <p>
+ * On replay, frames are read until the first one that is incomplete or fails its checksum, which is
+ * what a crash in the middle of an append leaves behind. The file is truncated there, so later
+ * appends don't end up behind the damaged tail.
+ * <p>
+ * A batch of frames is written and then forced to disk once, so the durability of a burst of
+ * changes costs a single fsync (group commit).
+ */
+public class ShulkerBoxWriteAheadLog {
+    public static final String EXTENSION = ".wal";
+
+    private static final int MAGIC = 0x57494D57; // "WIMW"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CONTENTS = 3;
+
+    private final Path path;
+    // generation of the log, records appended from now on belong to it
+    private long generation = 1;
+    // true once the file on disk has a header for the current generation
+    private boolean open;
+    private long size;
+
+    public ShulkerBoxWriteAheadLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Apply the records of the log to an index and prepare the log for appending.
+     *
+     * @param boxes Index to apply the records to
+     * @param snapshotGeneration Generation stored in the snapshot the index was loaded from, 0 if there is none
+     * @return Number of applied records
+     */
+    public int replay(ShulkerBoxIndex boxes, long snapshotGeneration) {
+        open = false;
+        size = 0;
+        generation = snapshotGeneration + 1;
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE) {
+                return 0;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return 0;
+            }
+            long logGeneration = buffer.getLong();
+            if (logGeneration <= snapshotGeneration) {
+                // already part of the snapshot, overwritten by the next append
+                return 0;
+            }
+
+            CRC32 crc = new CRC32();
+            int validEnd = buffer.position();
+            while (buffer.remaining() >= FRAME_HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > MAX_PAYLOAD_BYTES || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                apply(payload, boxes);
+                records++;
+                validEnd = buffer.position();
+            }
+
+            if (validEnd < fileSize) {
+                // torn or corrupted tail from an interrupted write
+                channel.truncate(validEnd);
+                channel.force(false);
+            }
+            generation = logGeneration;
+            open = true;
+            size = validEnd;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer payload, ShulkerBoxIndex boxes) {
+        try {
+            byte type = payload.get();
+            int x = payload.getInt();
+            int y = payload.getInt();
+            int z = payload.getInt();
+            if (type == ADD) {
+                long timestamp = payload.getLong();
+                String dimension = readString(payload);
+                String color = readString(payload);
+                String customName = readString(payload);
+                boxes.put(x, y, z, timestamp, dimension, color, customName);
+            } else if (type == REMOVE) {
+                boxes.remove(readString(payload), BlockPos.asLong(x, y, z));
+            } else if (type == CONTENTS) {
+                String dimension = readString(payload);
+                int itemCount = payload.getInt();
+                Map<String, Integer> items = new HashMap<>();
+                for (int i = 0; i < itemCount; i++) {
+                    items.merge(readString(payload), payload.getInt(), Integer::sum);
+                }
+                boxes.setContents(dimension, BlockPos.asLong(x, y, z), ShulkerBoxContents.of(items));
+            }
+        } catch (RuntimeException ignored) {
+            // checksum matched but the record doesn't make sense, skip it
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return Generation that a snapshot written now includes
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return Size of the log file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Build the log frame for a placement.
+     *
+     * @param data The placed shulker box
+     * @return Encoded frame
+     */
+    public static byte[] addRecord(ShulkerBoxData data) {
+        byte[] dimension = bytes(data.getDimension());
+        byte[] color = bytes(data.getColor());
+        byte[] customName = bytes(data.getCustomName());
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 * 3 + 8 + 4 * 3 + dimension.length + color.length + customName.length);
+        putPosition(payload.put(ADD), data.getPosition());
+        payload.putLong(data.getTimestamp());
+        putString(payload, dimension);
+        putString(payload, color);
+        putString(payload, customName);
+        return frame(payload);
+    }
+
+    /**
+     * Build the log frame for a removal.
+     *
+     * @param data The removed shulker box
+     * @return Encoded frame
+     */
+    public static byte[] removeRecord(ShulkerBoxData data) {
+        byte[] dimension = bytes(data.getDimension());
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 * 3 + 4 + dimension.length);
+        putPosition(payload.put(REMOVE), data.getPosition());
+        putString(payload, dimension);
+        return frame(payload);
+    }
+
+    /**
+     * Build the log frame for the contents of an opened shulker box.
+     *
+     * @param data The shulker box, with its contents
+     * @return Encoded frame
+     */
+    public static byte[] contentsRecord(ShulkerBoxData data) {
+        ShulkerBoxContents contents = data.getContents() != null ? data.getContents() : ShulkerBoxContents.EMPTY;
+        byte[] dimension = bytes(data.getDimension());
+        byte[][] items = new byte[contents.size()][];
+        int length = 1 + 4 * 3 + 4 + dimension.length + 4;
+        for (int i = 0; i < items.length; i++) {
+            items[i] = bytes(contents.getItem(i));
+            length += 4 + items[i].length + 4;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        putPosition(payload.put(CONTENTS), data.getPosition());
+        putString(payload, dimension);
+        payload.putInt(items.length);
+        for (int i = 0; i < items.length; i++) {
+            putString(payload, items[i]);
+            payload.putInt(contents.getCount(i));
+        }
+        return frame(payload);
+    }
+
+    private static void putPosition(ByteBuffer buffer, BlockPos pos) {
+        buffer.putInt(pos.getX()).putInt(pos.getY()).putInt(pos.getZ());
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] frame(ByteBuffer payload) {
+        byte[] bytes = payload.array();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(FRAME_HEADER_BYTES + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+    }
+
+    /**
+     * Append frames in a single write and force them to disk.
+     *
+     * @param frames Frames in the order the changes happened
+     * @return Number of bytes written
+     * @throws IOException If the log can't be written
+     */
+    public long append(List<byte[]> frames) throws IOException {
+        int length = open ? 0 : HEADER_BYTES;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        if (!open) {
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(generation);
+        }
+        for (byte[] frame : frames) {
+            buffer.put(frame);
+        }
+        buffer.flip();
+
+        Files.createDirectories(path.getParent());
+        try (FileChannel channel = open
+                ? FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        open = true;
+        size += length;
+        return length;
+    }
+
+    /**
+     * Start a new generation after a snapshot including everything up to now was written.
+     *
+     * @throws IOException If the old log can't be deleted
+     */
+    public void reset() throws IOException {
+        generation++;
+        open = false;
+        size = 0;
+        Files.deleteIfExists(path);
+    }
+}
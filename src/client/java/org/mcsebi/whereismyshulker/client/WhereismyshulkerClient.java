@@ -2,11 +2,20 @@ package org.mcsebi.whereismyshulker.client;
 
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.rendering.v1.world.WorldRenderEvents;
+import net.fabricmc.fabric.api.client.screen.v1.ScreenEvents;
+import net.fabricmc.fabric.api.event.player.UseBlockCallback;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.argument.ItemStackArgumentType;
+import net.minecraft.registry.Registries;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
 import net.minecraft.text.ClickEvent;
 import net.minecraft.text.HoverEvent;
@@ -17,11 +26,28 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.dimension.DimensionType;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class WhereismyshulkerClient implements ClientModInitializer {
 
     private static final int ITEMS_PER_PAGE = 8; // maybe a maximum of 9 with nav would be possible on one screen, but 8 can be calculated more easily
+    private static final int MAX_NEAREST = 50;
+    private static final String DEFAULT_EXPORT_NAME = "shulker_boxes_export";
+    private static final int MAX_HISTORY_MIB = 1024;
+
+    private final ShulkerBoxReconciler reconciler = new ShulkerBoxReconciler();
+    private final ShulkerBoxContentsCapture contentsCapture = new ShulkerBoxContentsCapture();
 
     @Override
     public void onInitializeClient() {
@@ -35,11 +61,40 @@ public class WhereismyshulkerClient implements ClientModInitializer {
             ShulkerBoxTracker.getInstance().onWorldLoad();
         });
 
-        // Register world leave event
+        // Register world leave event, flushes pending writes
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
+            ShulkerBoxRescan.getInstance().cancel();
+            ShulkerBoxExchange.getInstance().cancel();
+            ShulkerBoxTracker.getInstance().onWorldUnload();
+        });
+
+        // Register client shutdown event
         ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            ShulkerBoxRescan.getInstance().cancel();
+            ShulkerBoxExchange.getInstance().cancel();
             ShulkerBoxTracker.getInstance().onWorldUnload();
         });
 
+        // Load the partition of a newly entered dimension, drop idle ones
+        ClientTickEvents.END_CLIENT_TICK.register(client -> ShulkerBoxTracker.getInstance().onTick(client));
+
+        // Write periodic stats dumps if enabled
+        ClientTickEvents.END_CLIENT_TICK.register(ShulkerBoxStats::onTick);
+
+        // Drop tracked shulker boxes that are gone once their chunk is loaded
+        ClientChunkEvents.CHUNK_LOAD.register(reconciler::onChunkLoad);
+        ClientTickEvents.END_CLIENT_TICK.register(reconciler::onTick);
+
+        // Apply block updates for tracked positions received during the tick in one batch
+        ClientTickEvents.END_CLIENT_TICK.register(client -> ShulkerBoxBlockUpdates.getInstance().onTick(client));
+
+        // Remember what is inside a shulker box when its screen is closed
+        UseBlockCallback.EVENT.register(contentsCapture::onUseBlock);
+        ScreenEvents.AFTER_INIT.register(contentsCapture::onScreenInit);
+
+        // Outline nearby tracked shulker boxes if enabled
+        WorldRenderEvents.BEFORE_DEBUG_RENDER.register(context -> ShulkerBoxOverlay.getInstance().render(context));
+
         // Register the /shulker command with pagination
         ClientCommandRegistrationCallback.EVENT.register((dispatcher, registryAccess) ->
             dispatcher.register(ClientCommandManager.literal("shulker")
@@ -47,6 +102,117 @@ public class WhereismyshulkerClient implements ClientModInitializer {
                     // Show page 1 by default
                     return showShulkerList(context.getSource(), "1");
                 })
+                .then(ClientCommandManager.literal("near")
+                    .executes(context -> showNearestShulkers(context.getSource(), ITEMS_PER_PAGE, Integer.MAX_VALUE))
+                    .then(ClientCommandManager.argument("k", IntegerArgumentType.integer(1, MAX_NEAREST))
+                        .executes(context -> showNearestShulkers(context.getSource(),
+                                IntegerArgumentType.getInteger(context, "k"), Integer.MAX_VALUE))
+                        .then(ClientCommandManager.argument("radius", IntegerArgumentType.integer(1))
+                            .executes(context -> showNearestShulkers(context.getSource(),
+                                    IntegerArgumentType.getInteger(context, "k"),
+                                    IntegerArgumentType.getInteger(context, "radius")))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("search")
+                    .then(ClientCommandManager.argument("query", StringArgumentType.string())
+                        .executes(context -> showSearchResults(context.getSource(),
+                                StringArgumentType.getString(context, "query"), 1))
+                        .then(ClientCommandManager.argument("page", IntegerArgumentType.integer())
+                            .executes(context -> showSearchResults(context.getSource(),
+                                    StringArgumentType.getString(context, "query"),
+                                    IntegerArgumentType.getInteger(context, "page")))
+                        )
+                    )
+                )
+                .then(sortCommand())
+                .then(ClientCommandManager.literal("history")
+                    .then(ClientCommandManager.literal("limit")
+                        .executes(context -> setHistoryLimit(context.getSource(), -1))
+                        .then(ClientCommandManager.argument("mib", IntegerArgumentType.integer(1, MAX_HISTORY_MIB))
+                            .executes(context -> setHistoryLimit(context.getSource(),
+                                    IntegerArgumentType.getInteger(context, "mib")))
+                        )
+                    )
+                    .then(ClientCommandManager.argument("since", StringArgumentType.word())
+                        .executes(context -> showHistory(context.getSource(),
+                                StringArgumentType.getString(context, "since"), 1))
+                        .then(ClientCommandManager.argument("page", IntegerArgumentType.integer())
+                            .executes(context -> showHistory(context.getSource(),
+                                    StringArgumentType.getString(context, "since"),
+                                    IntegerArgumentType.getInteger(context, "page")))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("find")
+                    .then(ClientCommandManager.argument("item", ItemStackArgumentType.itemStack(registryAccess))
+                        .executes(context -> showItemResults(context.getSource(),
+                                Registries.ITEM.getId(ItemStackArgumentType.getItemStackArgument(context, "item").getItem()).toString(), 1))
+                        .then(ClientCommandManager.argument("page", IntegerArgumentType.integer())
+                            .executes(context -> showItemResults(context.getSource(),
+                                    Registries.ITEM.getId(ItemStackArgumentType.getItemStackArgument(context, "item").getItem()).toString(),
+                                    IntegerArgumentType.getInteger(context, "page")))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("stats")
+                    .executes(context -> showStats(context.getSource()))
+                    .then(ClientCommandManager.literal("reset")
+                        .executes(context -> resetStats(context.getSource()))
+                    )
+                    .then(ClientCommandManager.literal("dump")
+                        .executes(context -> dumpStats(context.getSource(), -1))
+                        .then(ClientCommandManager.argument("interval", IntegerArgumentType.integer(0))
+                            .executes(context -> dumpStats(context.getSource(),
+                                    IntegerArgumentType.getInteger(context, "interval")))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("overlay")
+                    .executes(context -> toggleOverlay(context.getSource(), -1))
+                    .then(ClientCommandManager.argument("range", IntegerArgumentType.integer(1, ShulkerBoxOverlay.MAX_RANGE))
+                        .executes(context -> toggleOverlay(context.getSource(),
+                                IntegerArgumentType.getInteger(context, "range")))
+                    )
+                )
+                .then(ClientCommandManager.literal("rescan")
+                    .executes(context -> startRescan(context.getSource()))
+                    .then(ClientCommandManager.literal("cancel")
+                        .executes(context -> cancelRescan(context.getSource()))
+                    )
+                )
+                .then(ClientCommandManager.literal("memory")
+                    .executes(context -> showMemoryReport(context.getSource()))
+                )
+                .then(ClientCommandManager.literal("export")
+                    .executes(context -> exportFile(context.getSource(), null, null))
+                    .then(ClientCommandManager.literal("cancel")
+                        .executes(context -> cancelExchange(context.getSource()))
+                    )
+                    .then(ClientCommandManager.argument("format", StringArgumentType.word())
+                        .suggests((context, builder) -> CommandSource.suggestMatching(
+                                Arrays.stream(ShulkerBoxExchange.Format.values()).map(ShulkerBoxExchange.Format::getExtension), builder))
+                        .executes(context -> exportFile(context.getSource(),
+                                StringArgumentType.getString(context, "format"), DEFAULT_EXPORT_NAME))
+                        .then(ClientCommandManager.argument("name", StringArgumentType.word())
+                            .executes(context -> exportFile(context.getSource(),
+                                    StringArgumentType.getString(context, "format"),
+                                    StringArgumentType.getString(context, "name")))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("import")
+                    .executes(context -> importFile(context.getSource(), null))
+                    .then(ClientCommandManager.literal("cancel")
+                        .executes(context -> cancelExchange(context.getSource()))
+                    )
+                    .then(ClientCommandManager.argument("file", StringArgumentType.word())
+                        .suggests((context, builder) -> CommandSource.suggestMatching(
+                                listExchangeFiles(context.getSource()), builder))
+                        .executes(context -> importFile(context.getSource(),
+                                StringArgumentType.getString(context, "file")))
+                    )
+                )
                 .then(ClientCommandManager.argument("page", StringArgumentType.string())
                     .executes(context -> {
                         String arg = StringArgumentType.getString(context, "page");
@@ -65,11 +231,18 @@ public class WhereismyshulkerClient implements ClientModInitializer {
      * @return Command result status
      */
     private int showShulkerList(FabricClientCommandSource source, String arg) {
-        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
-        List<ShulkerBoxData> shulkerBoxes = tracker.getShulkerBoxes();
+        long start = ShulkerBoxStats.start();
+        try {
+            return showShulkerListPage(source, arg);
+        } finally {
+            ShulkerBoxStats.record(ShulkerBoxStats.Metric.LIST_COMMAND, start);
+        }
+    }
 
-        if (shulkerBoxes.isEmpty()) {
-            source.sendFeedback(Text.literal("No shulker boxes tracked yet!").formatted(Formatting.YELLOW));
+    private int showShulkerListPage(FabricClientCommandSource source, String arg) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (tracker.isLoading()) {
+            source.sendFeedback(Text.literal("Shulker boxes are still loading, try again in a moment.").formatted(Formatting.YELLOW));
             return 1;
         }
 
@@ -92,8 +265,260 @@ public class WhereismyshulkerClient implements ClientModInitializer {
             return 0;
         }
 
-        int totalPages = (int) Math.ceil((double) shulkerBoxes.size() / ITEMS_PER_PAGE);
+        // dimensions that aren't loaded are read in the background, the page is sent once they are done
+        tracker.getShulkerBoxPage(page, ITEMS_PER_PAGE, result -> {
+            if (result.totalCount() == 0) {
+                source.sendFeedback(Text.literal("No shulker boxes tracked yet!").formatted(Formatting.YELLOW));
+                return;
+            }
+            sendShulkerPage(source, "Shulker Box Tracker", result.entries(),
+                    page, result.pageCount(ITEMS_PER_PAGE), result.totalCount(), "/shulker ", null);
+        });
+        return 1;
+    }
+
+    /**
+     * Display one page of the shulker boxes whose custom name matches a search text.
+     *
+     * @param source Command sender source
+     * @param query Search text
+     * @param page Page number starting at 1
+     * @return Command result status
+     */
+    private int showSearchResults(FabricClientCommandSource source, String query, int page) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (tracker.isLoading()) {
+            source.sendFeedback(Text.literal("Shulker boxes are still loading, try again in a moment.").formatted(Formatting.YELLOW));
+            return 1;
+        }
+
+        tracker.searchShulkerBoxes(query, page, ITEMS_PER_PAGE, result -> {
+            if (result.totalCount() == 0) {
+                source.sendFeedback(Text.literal("No shulker boxes named like \"" + query + "\"!").formatted(Formatting.YELLOW));
+                return;
+            }
+            sendShulkerPage(source, "Search: " + query, result.entries(), page, result.pageCount(ITEMS_PER_PAGE),
+                    result.totalCount(), "/shulker search " + StringArgumentType.escapeIfRequired(query) + " ", null);
+        });
+        return 1;
+    }
+
+    /**
+     * Build {@code /shulker sort <order> [page]} with one literal per sort order.
+     *
+     * @return Command node for the sort subcommand
+     */
+    private LiteralArgumentBuilder<FabricClientCommandSource> sortCommand() {
+        LiteralArgumentBuilder<FabricClientCommandSource> sort = ClientCommandManager.literal("sort");
+        for (ShulkerBoxSortOrder order : ShulkerBoxSortOrder.values()) {
+            sort.then(ClientCommandManager.literal(order.name().toLowerCase(Locale.ROOT))
+                .executes(context -> showSortedList(context.getSource(), order, 1))
+                .then(ClientCommandManager.argument("page", IntegerArgumentType.integer())
+                    .executes(context -> showSortedList(context.getSource(), order,
+                            IntegerArgumentType.getInteger(context, "page")))
+                )
+            );
+        }
+        return sort;
+    }
+
+    /**
+     * Display one page of the shulker boxes in a sorted order.
+     *
+     * @param source Command sender source
+     * @param order Sort order
+     * @param page Page number starting at 1
+     * @return Command result status
+     */
+    private int showSortedList(FabricClientCommandSource source, ShulkerBoxSortOrder order, int page) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (tracker.isLoading()) {
+            source.sendFeedback(Text.literal("Shulker boxes are still loading, try again in a moment.").formatted(Formatting.YELLOW));
+            return 1;
+        }
+
+        tracker.getSortedShulkerBoxes(order, source.getPlayer().getBlockPos(), source.getWorld(), page, ITEMS_PER_PAGE,
+                result -> {
+                    if (result.totalCount() == 0) {
+                        source.sendFeedback(Text.literal(order == ShulkerBoxSortOrder.DISTANCE
+                                ? "No shulker boxes tracked in this dimension!"
+                                : "No shulker boxes tracked yet!").formatted(Formatting.YELLOW));
+                        return;
+                    }
+                    String name = order.name().toLowerCase(Locale.ROOT);
+                    sendShulkerPage(source, "Sorted by " + name, result.entries(), page, result.pageCount(ITEMS_PER_PAGE),
+                            result.totalCount(), "/shulker sort " + name + " ", null);
+                });
+        return 1;
+    }
+
+    /**
+     * Display one page of the shulker boxes placed or removed in a recent time span, newest first.
+     *
+     * @param source Command sender source
+     * @param since Time span like 30m, 2h, 1d or 1h30m
+     * @param page Page number starting at 1
+     * @return Command result status
+     */
+    private int showHistory(FabricClientCommandSource source, String since, int page) {
+        long span = parseDuration(since);
+        if (span < 0) {
+            source.sendError(Text.literal("Invalid time span! Use e.g. 30m, 2h, 1d or 1h30m."));
+            return 0;
+        }
+
+        // archive segments are read in the background, the page is sent once they are done
+        try {
+            ShulkerBoxTracker.getInstance().getHistoryPage(System.currentTimeMillis() - span, page, ITEMS_PER_PAGE,
+                    result -> sendHistoryPage(source, since, page, result));
+        } catch (IOException e) {
+            source.sendError(Text.literal("History unavailable: " + e.getMessage()));
+            return 0;
+        }
+        return 1;
+    }
+
+    private void sendHistoryPage(FabricClientCommandSource source, String since, int page, ShulkerBoxHistory.Page result) {
+        if (result.totalCount() == 0) {
+            source.sendFeedback(Text.literal("No shulker boxes placed or removed in the last " + since + "!").formatted(Formatting.YELLOW));
+            return;
+        }
+
+        Map<ShulkerBoxData, ShulkerBoxHistory.Event> events = new IdentityHashMap<>();
+        List<ShulkerBoxData> boxes = new ArrayList<>(result.events().size());
+        for (ShulkerBoxHistory.Event event : result.events()) {
+            events.put(event.box(), event);
+            boxes.add(event.box());
+        }
+        long now = System.currentTimeMillis();
+        sendShulkerPage(source, "History: last " + since, boxes, page, result.pageCount(ITEMS_PER_PAGE),
+                result.totalCount(), "/shulker history " + since + " ", data -> {
+                    ShulkerBoxHistory.Event event = events.get(data);
+                    boolean placed = event.type() == ShulkerBoxHistory.Type.PLACED;
+                    return Text.literal(" [" + (placed ? "placed " : "removed ") + formatAge(now - event.timestamp()) + "]")
+                            .formatted(placed ? Formatting.GREEN : Formatting.RED);
+                });
+    }
+
+    /**
+     * Show or change how much disk space the archived history may use.
+     *
+     * @param source Command sender source
+     * @param mib New limit in MiB, negative to only show the current one
+     * @return Command result status
+     */
+    private int setHistoryLimit(FabricClientCommandSource source, int mib) {
+        ShulkerBoxHistory history;
+        try {
+            history = ShulkerBoxTracker.getInstance().getHistory();
+        } catch (IOException e) {
+            source.sendError(Text.literal("History unavailable: " + e.getMessage()));
+            return 0;
+        }
+        if (mib > 0) {
+            history.setMaxBytes(mib * 1024L * 1024L);
+        }
+        source.sendFeedback(Text.literal("History archive: " + formatBytes(history.getArchiveBytes())
+                + " of " + formatBytes(history.getMaxBytes())).formatted(mib > 0 ? Formatting.GREEN : Formatting.GRAY));
+        return 1;
+    }
+
+    /**
+     * Parse a time span made of numbers with the units d, h, m and s, e.g. 1h30m.
+     *
+     * @param text Time span
+     * @return Milliseconds, or -1 if the text isn't a valid time span
+     */
+    private static long parseDuration(String text) {
+        long total = 0;
+        long number = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (c >= '0' && c <= '9') {
+                number = (number < 0 ? 0 : number * 10) + (c - '0');
+                if (number > 1_000_000) {
+                    return -1;
+                }
+                continue;
+            }
+            long unit = switch (c) {
+                case 'd' -> 24L * 60 * 60 * 1000;
+                case 'h' -> 60L * 60 * 1000;
+                case 'm' -> 60L * 1000;
+                case 's' -> 1000L;
+                default -> -1;
+            };
+            if (unit < 0 || number < 0) {
+                return -1;
+            }
+            total += number * unit;
+            number = -1;
+        }
+        // a number without unit at the end is invalid
+        return number < 0 && total > 0 ? total : -1;
+    }
+
+    /**
+     * Format how long ago something happened.
+     *
+     * @param ms Elapsed milliseconds
+     * @return Rounded down to the largest unit
+     */
+    private static String formatAge(long ms) {
+        long minutes = ms / (60 * 1000);
+        if (minutes < 1) {
+            return "just now";
+        } else if (minutes < 60) {
+            return minutes + " min ago";
+        } else if (minutes < 24 * 60) {
+            return minutes / 60 + " h ago";
+        }
+        return minutes / (24 * 60) + " d ago";
+    }
+
+    /**
+     * Display one page of the shulker boxes that held an item the last time they were opened.
+     *
+     * @param source Command sender source
+     * @param item Item id, e.g. minecraft:diamond
+     * @param page Page number starting at 1
+     * @return Command result status
+     */
+    private int showItemResults(FabricClientCommandSource source, String item, int page) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (tracker.isLoading()) {
+            source.sendFeedback(Text.literal("Shulker boxes are still loading, try again in a moment.").formatted(Formatting.YELLOW));
+            return 1;
+        }
+
+        tracker.findShulkerBoxes(item, page, ITEMS_PER_PAGE, result -> {
+            if (result.totalCount() == 0) {
+                source.sendFeedback(Text.literal("No opened shulker box contains " + item + "!").formatted(Formatting.YELLOW));
+                return;
+            }
+            sendShulkerPage(source, "Find: " + item, result.entries(), page, result.pageCount(ITEMS_PER_PAGE),
+                    result.totalCount(), "/shulker find " + item + " ",
+                    data -> Text.literal(" x" + data.getContents().countOf(item)).formatted(Formatting.AQUA));
+        });
+        return 1;
+    }
 
+    /**
+     * Send one page of shulker boxes with header and navigation.
+     *
+     * @param source Command sender source
+     * @param title Header title
+     * @param pageEntries Shulker boxes on this page
+     * @param page Page number starting at 1
+     * @param totalPages Number of pages
+     * @param totalCount Number of shulker boxes on all pages
+     * @param pageCommand Command to which the page number is appended for navigation
+     * @param suffix Builds extra text appended to each entry, may be null
+     * @return Command result status
+     */
+    private int sendShulkerPage(FabricClientCommandSource source, String title, List<ShulkerBoxData> pageEntries,
+                                int page, int totalPages, int totalCount, String pageCommand,
+                                Function<ShulkerBoxData, Text> suffix) {
         if (page < 1 || page > totalPages) {
             if(totalPages == 1) {
                 source.sendError(Text.literal("Invalid page number! There is only one page."));
@@ -104,61 +529,25 @@ public class WhereismyshulkerClient implements ClientModInitializer {
         }
 
         int startIndex = (page - 1) * ITEMS_PER_PAGE;
-        int endIndex = Math.min(startIndex + ITEMS_PER_PAGE, shulkerBoxes.size());
 
         // Header
-        source.sendFeedback(Text.literal("=== Shulker Box Tracker ===").formatted(Formatting.GOLD, Formatting.BOLD));
-        source.sendFeedback(Text.literal("Page " + page + " of " + totalPages + " (" + shulkerBoxes.size() + " total)")
+        source.sendFeedback(Text.literal("=== " + title + " ===").formatted(Formatting.GOLD, Formatting.BOLD));
+        source.sendFeedback(Text.literal("Page " + page + " of " + totalPages + " (" + totalCount + " total)")
                 .formatted(Formatting.GRAY));
 
         BlockPos playerPos = source.getPlayer().getBlockPos();
         String playerDim = source.getWorld().getRegistryKey().getValue().toString(); // returns e.g. minecraft:overworld
 
         // List shulker boxes for this page
-        for (int i = startIndex; i < endIndex; i++) {
-            ShulkerBoxData data = shulkerBoxes.get(i);
-            int boxNumber = i + 1;
-
-            String shulkerName = data.getColor() + " Shulker Box";
-            if(data.hasCustomName()) {
-                shulkerName = data.getCustomName();
-            }
-            shulkerName = shulkerName.trim();
-
-            // generate info about dimension, distance and direction
-            Text dimensionInfo;
-            Text distanceInfo;
-            if(data.getDimension().equals(playerDim)) {
-                // same dimension - show distance and direction
-                dimensionInfo = Text.literal("");
-
-                double horizontalDistance = getHorizontalDistance(playerPos, data.getPosition());
-                String direction = getDirection(playerPos, data.getPosition());
-                int verticalDistance = Math.abs(playerPos.getY() - data.getPosition().getY());
-                String belowOrAbove = data.getPosition().getY() < playerPos.getY() ? "v" : "^";
-
-                distanceInfo = Text.literal(String.format(" [%d %s, %d %s]", (int)horizontalDistance, direction, verticalDistance, belowOrAbove))
-                        .formatted(Formatting.DARK_GRAY);
-
-            } else {
-                // different dimension - show dimension only
-                dimensionInfo = Text.literal("(").formatted(Formatting.GRAY)
-                        .append(Text.literal(formatDimension(data.getDimension()).formatted(Formatting.WHITE))
-                                .append(Text.literal(")").formatted(Formatting.GRAY)));
+        for (int i = 0; i < pageEntries.size(); i++) {
+            ShulkerBoxData data = pageEntries.get(i);
+            int boxNumber = startIndex + i + 1;
 
-                distanceInfo = Text.literal("").formatted(Formatting.DARK_GRAY);
+            MutableText line = ShulkerBoxFormatting.formatShulkerBoxLine(boxNumber, data, playerPos, playerDim);
+            if (suffix != null) {
+                line.append(suffix.apply(data));
             }
-
-            MutableText message = Text.literal(boxNumber + ". ").formatted(Formatting.WHITE)
-                    .append(Text.literal(shulkerName).formatted(getColorFormatting(data.getColor())))
-                    .append(Text.literal(" (").formatted(Formatting.GRAY))
-                    .append(createClickableCoords(data))
-                    .append(Text.literal(") ").formatted(Formatting.GRAY))
-                    .append(dimensionInfo)
-                    .append(distanceInfo);
-
-
-            source.sendFeedback(message);
+            source.sendFeedback(line);
         }
 
         // Footer with navigation (if necessary)
@@ -170,7 +559,7 @@ public class WhereismyshulkerClient implements ClientModInitializer {
             navigation.append(Text.literal("[← Prev]")
                     .formatted(Formatting.YELLOW)
                     .styled(style -> style
-                            .withClickEvent(new ClickEvent.RunCommand("/shulker " + prev))
+                            .withClickEvent(new ClickEvent.RunCommand(pageCommand + prev))
                             .withHoverEvent(new HoverEvent.ShowText(Text.literal("Go to page " + prev)))
                     ));
             navigation.append(Text.literal(" "));
@@ -182,7 +571,7 @@ public class WhereismyshulkerClient implements ClientModInitializer {
             navigation.append(Text.literal("[Next →]")
                     .formatted(Formatting.YELLOW)
                     .styled(style -> style
-                            .withClickEvent(new ClickEvent.RunCommand("/shulker " + next))
+                            .withClickEvent(new ClickEvent.RunCommand(pageCommand + next))
                             .withHoverEvent(new HoverEvent.ShowText(Text.literal("Go to page " + next)))
                     ));
             hasNav = true;
@@ -197,105 +586,272 @@ public class WhereismyshulkerClient implements ClientModInitializer {
     }
 
     /**
-     * Create clickable coordinates text component.
+     * Display the shulker boxes closest to the player in the current dimension.
      *
-     * @param data Shulker box data
-     * @return Clickable text component with coordinates
+     * @param source Command sender source
+     * @param k Maximum number of shulker boxes to show
+     * @param radius Maximum horizontal distance in blocks
+     * @return Command result status
      */
-    private MutableText createClickableCoords(ShulkerBoxData data) {
-        BlockPos pos = data.getPosition();
-
-        String coords = pos.getX() + ", " + pos.getY() + ", " + pos.getZ();
-        String cmd = "/tp @s " + pos.getX() + " " + pos.getY() + " " + pos.getZ();
-
-        return Text.literal(coords)
-                .formatted(Formatting.GREEN)
-                .styled(style -> style
-                        .withClickEvent(new ClickEvent.SuggestCommand(cmd))
-                        .withHoverEvent(new HoverEvent.ShowText(Text.literal("Click to teleport")))
-                );
+    private int showNearestShulkers(FabricClientCommandSource source, int k, int radius) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        if (tracker.isLoading()) {
+            source.sendFeedback(Text.literal("Shulker boxes are still loading, try again in a moment.").formatted(Formatting.YELLOW));
+            return 1;
+        }
+
+        BlockPos playerPos = source.getPlayer().getBlockPos();
+        String playerDim = source.getWorld().getRegistryKey().getValue().toString();
+        List<ShulkerBoxData> nearest = tracker.getNearestShulkerBoxes(playerPos, source.getWorld(), k, radius);
+
+        if (nearest.isEmpty()) {
+            source.sendFeedback(Text.literal(radius == Integer.MAX_VALUE
+                    ? "No shulker boxes tracked in this dimension!"
+                    : "No shulker boxes tracked within " + radius + " blocks!").formatted(Formatting.YELLOW));
+            return 1;
+        }
+
+        source.sendFeedback(Text.literal("=== Nearest Shulker Boxes ===").formatted(Formatting.GOLD, Formatting.BOLD));
+        for (int i = 0; i < nearest.size(); i++) {
+            source.sendFeedback(ShulkerBoxFormatting.formatShulkerBoxLine(i + 1, nearest.get(i), playerPos, playerDim));
+        }
+        return 1;
     }
 
     /**
-     * Get the Minecraft Formatting color for the given color name.
+     * Switch the in-world outlines of tracked shulker boxes on or off, or change their range.
      *
-     * @param color Color name
-     * @return Formatting color
+     * @param source Command sender source
+     * @param range Range in blocks to switch the overlay on with, negative to toggle it
+     * @return Command result status
      */
-    private Formatting getColorFormatting(String color) {
-        return switch (color.toLowerCase()) {
-            case "white" -> Formatting.WHITE;
-            case "orange" -> Formatting.GOLD;
-            case "magenta" -> Formatting.LIGHT_PURPLE;
-            case "light blue" -> Formatting.AQUA;
-            case "yellow" -> Formatting.YELLOW;
-            case "lime" -> Formatting.GREEN;
-            case "pink" -> Formatting.LIGHT_PURPLE;
-            case "gray" -> Formatting.DARK_GRAY;
-            case "light gray" -> Formatting.GRAY;
-            case "cyan" -> Formatting.DARK_AQUA;
-            case "purple" -> Formatting.DARK_PURPLE;
-            case "blue" -> Formatting.BLUE;
-            case "brown" -> Formatting.GOLD;
-            case "green" -> Formatting.DARK_GREEN;
-            case "red" -> Formatting.RED;
-            case "black" -> Formatting.BLACK;
-            default -> Formatting.LIGHT_PURPLE;
-        };
+    private int toggleOverlay(FabricClientCommandSource source, int range) {
+        ShulkerBoxOverlay overlay = ShulkerBoxOverlay.getInstance();
+        if (range > 0) {
+            overlay.setRange(range);
+            overlay.setEnabled(true);
+        } else {
+            overlay.setEnabled(!overlay.isEnabled());
+        }
+
+        if (overlay.isEnabled()) {
+            source.sendFeedback(Text.literal("Outlining tracked shulker boxes within " + overlay.getRange() + " blocks.").formatted(Formatting.GREEN));
+        } else {
+            source.sendFeedback(Text.literal("Shulker box outlines disabled.").formatted(Formatting.GREEN));
+        }
+        return 1;
     }
 
     /**
-     * Get cardinal direction from one position to another.
+     * Rebuild the tracked shulker boxes from the region files of the singleplayer world.
      *
-     * @param from First position
-     * @param to Second position
-     * @return Direction as string (N, NE, E, SE, S, SW, W, NW)
+     * @param source Command sender source
+     * @return Command result status
      */
-    private String getDirection(BlockPos from, BlockPos to) {
-        double dx = to.getX() - from.getX();
-        double dz = to.getZ() - from.getZ();
-        double angle = Math.toDegrees(Math.atan2(-dx, dz));
-        if (angle < 0) angle += 360;
-
-        if (angle >= 337.5 || angle < 22.5) return "S";
-        if (angle >= 22.5 && angle < 67.5) return "SW";
-        if (angle >= 67.5 && angle < 112.5) return "W";
-        if (angle >= 112.5 && angle < 157.5) return "NW";
-        if (angle >= 157.5 && angle < 202.5) return "N";
-        if (angle >= 202.5 && angle < 247.5) return "NE";
-        if (angle >= 247.5 && angle < 292.5) return "E";
-        if (angle >= 292.5 && angle < 337.5) return "SE";
-
-        return "Unknown";
+    private int startRescan(FabricClientCommandSource source) {
+        ShulkerBoxRescan rescan = ShulkerBoxRescan.getInstance();
+        if (rescan.isRunning()) {
+            source.sendError(Text.literal("A rescan is already running, use /shulker rescan cancel to stop it."));
+            return 0;
+        }
+        if (!rescan.start(source.getClient(), text -> source.sendFeedback(text.copy().formatted(Formatting.GRAY)))) {
+            source.sendError(Text.literal("Rescanning is only possible in singleplayer worlds."));
+            return 0;
+        }
+        return 1;
+    }
+
+    private int cancelRescan(FabricClientCommandSource source) {
+        if (ShulkerBoxRescan.getInstance().cancel()) {
+            source.sendFeedback(Text.literal("Rescan cancelled.").formatted(Formatting.GREEN));
+        } else {
+            source.sendFeedback(Text.literal("No rescan is running.").formatted(Formatting.YELLOW));
+        }
+        return 1;
     }
 
     /**
-     * Calculate horizontal distance between two BlockPos.
+     * Display how much memory the tracked shulker boxes use.
      *
-     * @param from First position
-     * @param to Second position
-     * @return Horizontal distance
+     * @param source Command sender source
+     * @return Command result status
      */
-    private double getHorizontalDistance(BlockPos from, BlockPos to) {
-        double dx = to.getX() - from.getX();
-        double dz = to.getZ() - from.getZ();
-        return Math.sqrt(dx * dx + dz * dz);
+    private int showMemoryReport(FabricClientCommandSource source) {
+        ShulkerBoxTracker tracker = ShulkerBoxTracker.getInstance();
+        ShulkerBoxIndex.MemoryReport report = tracker.getMemoryReport();
+        long perEntry = report.entries() > 0 ? report.totalBytes() / report.entries() : 0;
+        long objectPerEntry = report.entries() > 0 ? report.objectBytes() / report.entries() : 0;
+
+        source.sendFeedback(Text.literal("=== Shulker Box Memory ===").formatted(Formatting.GOLD, Formatting.BOLD));
+        source.sendFeedback(Text.literal(report.entries() + " entries, ~" + formatBytes(report.totalBytes())
+                + " (" + perEntry + " bytes per entry)").formatted(Formatting.WHITE));
+        source.sendFeedback(Text.literal("Columns: " + formatBytes(report.columnBytes())
+                + ", index: " + formatBytes(report.indexBytes())
+                + ", strings: " + formatBytes(report.stringBytes())).formatted(Formatting.GRAY));
+        source.sendFeedback(Text.literal("As separate objects: ~" + formatBytes(report.objectBytes())
+                + " (" + objectPerEntry + " bytes per entry)").formatted(Formatting.DARK_GRAY));
+        source.sendFeedback(Text.literal(tracker.getLoadedPartitionCount() + " of " + tracker.getPartitionCount()
+                + " dimensions loaded").formatted(Formatting.GRAY));
+        return 1;
     }
 
     /**
-     * Format dimension string to a more user-friendly name.
+     * Display call counts and latencies of the instrumented operations.
      *
-     * @param dimension Dimension identifier
-     * @return Formatted dimension name
+     * @param source Command sender source
+     * @return Command result status
      */
-    private String formatDimension(String dimension) {
-        if (dimension.contains("overworld")) {
-            return "Overworld";
-        } else if (dimension.contains("the_nether")) {
-            return "Nether";
-        } else if (dimension.contains("the_end")) {
-            return "End";
-        }
-        return dimension;
+    private int showStats(FabricClientCommandSource source) {
+        source.sendFeedback(Text.literal("=== Shulker Box Stats ===").formatted(Formatting.GOLD, Formatting.BOLD));
+        for (String line : ShulkerBoxStats.report()) {
+            source.sendFeedback(Text.literal(line).formatted(Formatting.GRAY));
+        }
+        return 1;
+    }
+
+    private int resetStats(FabricClientCommandSource source) {
+        ShulkerBoxStats.reset();
+        source.sendFeedback(Text.literal("Stats have been reset.").formatted(Formatting.GREEN));
+        return 1;
+    }
+
+    /**
+     * Write the stats to a file once, or periodically.
+     *
+     * @param source Command sender source
+     * @param interval Seconds between dumps, 0 to stop periodic dumps, negative to dump once
+     * @return Command result status
+     */
+    private int dumpStats(FabricClientCommandSource source, int interval) {
+        if (interval == 0) {
+            ShulkerBoxStats.setDumpInterval(0);
+            source.sendFeedback(Text.literal("Periodic stats dumps stopped.").formatted(Formatting.GREEN));
+            return 1;
+        }
+        Path path = ShulkerBoxStats.dump();
+        if (interval > 0) {
+            ShulkerBoxStats.setDumpInterval(interval);
+            source.sendFeedback(Text.literal("Dumping stats to " + path + " every " + interval + " seconds.").formatted(Formatting.GREEN));
+        } else {
+            source.sendFeedback(Text.literal("Stats written to " + path).formatted(Formatting.GREEN));
+        }
+        return 1;
+    }
+
+    /**
+     * Format a byte count for display.
+     *
+     * @param bytes Number of bytes
+     * @return Human readable size
+     */
+    private String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KiB", bytes / 1024.0);
+        }
+        return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Export the tracked shulker boxes to a file in the background.
+     *
+     * @param source Command sender source
+     * @param formatName File extension of the format, null for the CSV file next to the storage files
+     * @param name File name without extension, the file is placed in the shared export directory
+     * @return Command result status
+     */
+    private int exportFile(FabricClientCommandSource source, String formatName, String name) {
+        ShulkerBoxExchange exchange = ShulkerBoxExchange.getInstance();
+        if (exchange.isRunning()) {
+            source.sendError(Text.literal("An export or import is already running."));
+            return 0;
+        }
+        try {
+            ShulkerBoxExchange.Format format;
+            Path file;
+            if (formatName == null) {
+                format = ShulkerBoxExchange.Format.CSV;
+                file = ShulkerBoxTracker.getInstance().getCsvExchangeFile();
+            } else {
+                format = ShulkerBoxExchange.Format.ofExtension(formatName);
+                if (format == null) {
+                    source.sendError(Text.literal("Unknown format! Valid formats: " + formatList()));
+                    return 0;
+                }
+                file = ShulkerBoxTracker.getExchangeDirectory(source.getClient()).resolve(name + "." + format.getExtension());
+            }
+            exchange.export(source.getClient(), file, format, text -> source.sendFeedback(text.copy().formatted(Formatting.GRAY)));
+            return 1;
+        } catch (IOException e) {
+            source.sendError(Text.literal("Export failed: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    /**
+     * Import shulker boxes from a previously exported file in the background.
+     *
+     * @param source Command sender source
+     * @param fileName File in the shared export directory, null for the CSV file next to the storage files
+     * @return Command result status
+     */
+    private int importFile(FabricClientCommandSource source, String fileName) {
+        ShulkerBoxExchange exchange = ShulkerBoxExchange.getInstance();
+        if (exchange.isRunning()) {
+            source.sendError(Text.literal("An export or import is already running."));
+            return 0;
+        }
+        try {
+            Path file = fileName == null
+                    ? ShulkerBoxTracker.getInstance().getCsvExchangeFile()
+                    : ShulkerBoxTracker.getExchangeDirectory(source.getClient()).resolve(fileName);
+            ShulkerBoxExchange.Format format = ShulkerBoxExchange.Format.ofFile(file);
+            if (format == null) {
+                source.sendError(Text.literal("Unknown file type! Valid formats: " + formatList()));
+                return 0;
+            }
+            if (!Files.isRegularFile(file)) {
+                throw new IOException("File not found: " + file);
+            }
+            exchange.importFile(source.getClient(), file, format, text -> source.sendFeedback(text.copy().formatted(Formatting.GRAY)));
+            return 1;
+        } catch (IOException e) {
+            source.sendError(Text.literal("Import failed: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private int cancelExchange(FabricClientCommandSource source) {
+        if (ShulkerBoxExchange.getInstance().cancel()) {
+            source.sendFeedback(Text.literal("Export or import cancelled.").formatted(Formatting.GREEN));
+        } else {
+            source.sendFeedback(Text.literal("No export or import is running.").formatted(Formatting.YELLOW));
+        }
+        return 1;
+    }
+
+    private String formatList() {
+        return Arrays.stream(ShulkerBoxExchange.Format.values())
+                .map(ShulkerBoxExchange.Format::getExtension)
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * @return Names of the importable files in the shared export directory
+     */
+    private List<String> listExchangeFiles(FabricClientCommandSource source) {
+        Path directory = ShulkerBoxTracker.getExchangeDirectory(source.getClient());
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> ShulkerBoxExchange.Format.ofFile(file) != null)
+                    .map(file -> file.getFileName().toString())
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
     }
 }
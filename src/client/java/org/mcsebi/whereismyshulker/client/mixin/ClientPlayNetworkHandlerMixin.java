@@ -0,0 +1,34 @@
+package org.mcsebi.whereismyshulker.client.mixin;
+
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.network.packet.s2c.play.BlockUpdateS2CPacket;
+import net.minecraft.network.packet.s2c.play.ChunkDeltaUpdateS2CPacket;
+import org.mcsebi.whereismyshulker.client.ShulkerBoxBlockUpdates;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientPlayNetworkHandler.class)
+public abstract class ClientPlayNetworkHandlerMixin {
+
+    @Shadow
+    private ClientWorld world;
+
+    // the handlers hop to the client thread first, so TAIL only runs there after the update was applied
+    @Inject(method = "onBlockUpdate", at = @At("TAIL"))
+    private void whereismyshulker$onBlockUpdate(BlockUpdateS2CPacket packet, CallbackInfo ci) {
+        if (world != null) {
+            ShulkerBoxBlockUpdates.getInstance().onBlockUpdate(world, packet.getPos(), packet.getState());
+        }
+    }
+
+    @Inject(method = "onChunkDeltaUpdate", at = @At("TAIL"))
+    private void whereismyshulker$onChunkDeltaUpdate(ChunkDeltaUpdateS2CPacket packet, CallbackInfo ci) {
+        if (world != null) {
+            ShulkerBoxBlockUpdates.getInstance().onChunkDeltaUpdate(world, packet);
+        }
+    }
+}
@@ -41,8 +41,8 @@ public abstract class ClientPlayerInteractionManagerMixin {
         try {
             if (!cir.getReturnValue()) return;
 
-            if (Boolean.TRUE.equals(whereismyshulker$breakingShulker.get())) {
-                ShulkerBoxTracker.getInstance().onShulkerBoxBroken(pos);
+            if (Boolean.TRUE.equals(whereismyshulker$breakingShulker.get()) && client.world != null) {
+                ShulkerBoxTracker.getInstance().onShulkerBoxBroken(pos, client.world);
             }
         } finally {
             whereismyshulker$breakingShulker.remove();
@@ -0,0 +1,67 @@
+package org.mcsebi.whereismyshulker.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of {@link ShulkerBoxData#toCsv()} and {@link ShulkerBoxData#fromCsv(String)}, and of
+ * the streaming {@link ShulkerBoxCsvCodec} reader and writer over a whole batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CsvCodecBenchmark {
+    private static final int RECORDS = 1024;
+
+    private List<ShulkerBoxData> boxes;
+    private String[] lines;
+    private String document;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boxes = SyntheticShulkerBoxes.generate(RECORDS, 7);
+        lines = new String[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            lines[i] = boxes.get(i).toCsv();
+        }
+        document = String.join("\n", lines) + "\n";
+    }
+
+    @Benchmark
+    public String toCsv() {
+        return boxes.get(cursor++ & (RECORDS - 1)).toCsv();
+    }
+
+    @Benchmark
+    public ShulkerBoxData fromCsv() {
+        return ShulkerBoxData.fromCsv(lines[cursor++ & (RECORDS - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int readStream() throws IOException {
+        ShulkerBoxIndex index = new ShulkerBoxIndex();
+        ShulkerBoxCsvCodec.Reader reader = new ShulkerBoxCsvCodec.Reader(new StringReader(document));
+        while (reader.nextRecord() >= 0) {
+            reader.readShulkerBoxInto(0, index);
+        }
+        return index.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int writeStream() throws IOException {
+        StringWriter out = new StringWriter(RECORDS * 64);
+        ShulkerBoxCsvCodec.Writer writer = new ShulkerBoxCsvCodec.Writer(out);
+        for (ShulkerBoxData data : boxes) {
+            writer.writeShulkerBox(data);
+        }
+        return out.getBuffer().length();
+    }
+}
@@ -0,0 +1,39 @@
+package org.mcsebi.whereismyshulker.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@code /shulker search}: looking up matches and reading the first page of results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NameSearchBenchmark {
+    private static final int PAGE_SIZE = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"dia", "loot neth", "missing"})
+    public String query;
+
+    private ShulkerBoxIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = SyntheticShulkerBoxes.index(size, 42);
+    }
+
+    @Benchmark
+    public int searchFirstPage() {
+        List<ShulkerBoxData> results = index.searchByName(query);
+        int hash = results.size();
+        for (int i = 0; i < Math.min(PAGE_SIZE, results.size()); i++) {
+            hash = 31 * hash + results.get(i).getPosition().hashCode();
+        }
+        return hash;
+    }
+}
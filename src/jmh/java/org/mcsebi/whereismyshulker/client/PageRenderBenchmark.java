@@ -0,0 +1,56 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one /shulker page: fetching the newest-first page slice and building its chat lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageRenderBenchmark {
+    private static final int ITEMS_PER_PAGE = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ShulkerBoxIndex index;
+    private final BlockPos playerPos = new BlockPos(0, 64, 0);
+    private int page;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = SyntheticShulkerBoxes.index(size, 42);
+        // leave empty slots behind so lookups go through the rank tree
+        index.removeIf(data -> data.getPosition().getX() % 5 == 0);
+    }
+
+    @Benchmark
+    public void fetchPage(Blackhole blackhole) {
+        for (ShulkerBoxData data : nextPage()) {
+            blackhole.consume(data);
+        }
+    }
+
+    @Benchmark
+    public void renderPage(Blackhole blackhole) {
+        List<ShulkerBoxData> entries = nextPage();
+        for (int i = 0; i < entries.size(); i++) {
+            Text line = ShulkerBoxFormatting.formatShulkerBoxLine(i + 1, entries.get(i), playerPos, "minecraft:overworld");
+            blackhole.consume(line);
+        }
+    }
+
+    private List<ShulkerBoxData> nextPage() {
+        List<ShulkerBoxData> all = index.newestFirst();
+        int pages = (all.size() + ITEMS_PER_PAGE - 1) / ITEMS_PER_PAGE;
+        int start = (page++ % pages) * ITEMS_PER_PAGE;
+        return all.subList(start, Math.min(start + ITEMS_PER_PAGE, all.size()));
+    }
+}
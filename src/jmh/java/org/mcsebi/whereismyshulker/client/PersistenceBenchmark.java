@@ -0,0 +1,83 @@
+package org.mcsebi.whereismyshulker.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of full loads and saves in the binary snapshot and CSV formats, and of a single
+ * write-ahead log append (including its fsync).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private Path directory;
+    private Path csvPath;
+    private Path binaryPath;
+    private List<ShulkerBoxData> boxes;
+    private ShulkerBoxJournal journal;
+    private List<byte[]> singleRecord;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("whereismyshulker-bench");
+        csvPath = directory.resolve("shulker_boxes_export.csv");
+        binaryPath = directory.resolve("shulker_boxes.bin");
+        boxes = SyntheticShulkerBoxes.index(size, 42).toList();
+        ShulkerBoxCsv.write(csvPath, boxes);
+        ShulkerBoxBinaryFormat.write(binaryPath, boxes);
+
+        journal = new ShulkerBoxJournal(directory.resolve("journal"));
+        singleRecord = List.of(ShulkerBoxJournal.addRecord(boxes.get(0)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public int loadCsv() throws IOException {
+        ShulkerBoxIndex index = new ShulkerBoxIndex();
+        ShulkerBoxCsv.read(csvPath, index);
+        return index.size();
+    }
+
+    @Benchmark
+    public void saveCsv() throws IOException {
+        ShulkerBoxCsv.write(csvPath, boxes);
+    }
+
+    @Benchmark
+    public int loadBinary() throws IOException {
+        ShulkerBoxIndex index = new ShulkerBoxIndex();
+        ShulkerBoxBinaryFormat.read(binaryPath, index);
+        return index.size();
+    }
+
+    @Benchmark
+    public void saveBinary() throws IOException {
+        ShulkerBoxBinaryFormat.write(binaryPath, boxes);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void appendJournalRecord() {
+        journal.append(singleRecord);
+    }
+}
@@ -0,0 +1,73 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator for shulker box histories, so benchmarks run without a game client.
+ * Boxes are clustered around a few bases like real histories, with a mix of dimensions, colors and names.
+ */
+public final class SyntheticShulkerBoxes {
+    private static final String[] DIMENSIONS = {
+            "minecraft:overworld", "minecraft:overworld", "minecraft:overworld",
+            "minecraft:the_nether", "minecraft:the_end"
+    };
+    private static final String[] COLORS = {
+            "", "White", "Orange", "Magenta", "Light Blue", "Yellow", "Lime", "Pink", "Gray",
+            "Light Gray", "Cyan", "Purple", "Blue", "Brown", "Green", "Red", "Black"
+    };
+    private static final String[] NAMES = {
+            "", "", "", "Diamonds", "Redstone", "Food", "Building Blocks", "Loot, Nether", "Potions", "Enchanting"
+    };
+
+    private SyntheticShulkerBoxes() {
+    }
+
+    /**
+     * Generate a history of distinct shulker boxes.
+     *
+     * @param count Number of shulker boxes
+     * @param seed Random seed
+     * @return Shulker boxes in placement order
+     */
+    public static List<ShulkerBoxData> generate(int count, long seed) {
+        Random random = new Random(seed);
+        int[][] bases = new int[Math.max(1, count / 500)][];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = new int[]{random.nextInt(20000) - 10000, random.nextInt(20000) - 10000};
+        }
+
+        List<ShulkerBoxData> boxes = new ArrayList<>(count);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            int[] base = bases[random.nextInt(bases.length)];
+            // spread each base over a grid so positions stay unique
+            BlockPos pos = new BlockPos(base[0] + (i % 64), -60 + (i / 4096) % 300, base[1] + (i / 64) % 64);
+            timestamp += random.nextInt(60_000);
+            boxes.add(new ShulkerBoxData(pos,
+                    DIMENSIONS[random.nextInt(DIMENSIONS.length)],
+                    COLORS[random.nextInt(COLORS.length)],
+                    timestamp,
+                    NAMES[random.nextInt(NAMES.length)]));
+        }
+        return boxes;
+    }
+
+    /**
+     * Generate a filled index.
+     *
+     * @param count Number of shulker boxes
+     * @param seed Random seed
+     * @return Index holding the generated shulker boxes
+     */
+    public static ShulkerBoxIndex index(int count, long seed) {
+        ShulkerBoxIndex index = new ShulkerBoxIndex();
+        for (ShulkerBoxData data : generate(count, seed)) {
+            index.put(data);
+        }
+        return index;
+    }
+}
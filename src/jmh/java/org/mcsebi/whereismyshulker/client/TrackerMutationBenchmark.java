@@ -0,0 +1,57 @@
+package org.mcsebi.whereismyshulker.client;
+
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single placement and break against histories of different sizes. Measures the index
+ * and journal record work done by {@code ShulkerBoxTracker.onShulkerBoxPlaced} and
+ * {@code onShulkerBoxBroken}, which need a running game to be called directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrackerMutationBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ShulkerBoxIndex index;
+    private List<ShulkerBoxData> existing;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        existing = SyntheticShulkerBoxes.generate(size, 42);
+        index = new ShulkerBoxIndex();
+        for (ShulkerBoxData data : existing) {
+            index.put(data);
+        }
+    }
+
+    @Benchmark
+    public int placeAndBreakNew() {
+        // a box at a position that is not tracked yet, broken again right away to keep the size stable
+        ShulkerBoxData data = new ShulkerBoxData(new BlockPos(1_000_000, 64, cursor++ & 1023),
+                "minecraft:overworld", "Red", System.currentTimeMillis(), "");
+        index.put(data);
+        byte[] addRecord = ShulkerBoxJournal.addRecord(data);
+        ShulkerBoxData removed = index.remove(data.getDimension(), data.getPosition().asLong());
+        return addRecord.length + ShulkerBoxJournal.removeRecord(removed).length;
+    }
+
+    @Benchmark
+    public ShulkerBoxData replaceExisting() {
+        // placing at an already tracked position replaces the entry
+        ShulkerBoxData data = existing.get(cursor++ % existing.size());
+        return index.put(data);
+    }
+
+    @Benchmark
+    public boolean breakUntracked() {
+        return index.remove("minecraft:overworld", BlockPos.asLong(2_000_000, 64, cursor++ & 1023)) != null;
+    }
+}
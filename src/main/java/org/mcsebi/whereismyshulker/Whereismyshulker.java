@@ -1,10 +1,19 @@
 package org.mcsebi.whereismyshulker;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerBlockEntityEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import org.mcsebi.whereismyshulker.server.ServerShulkerBoxTracker;
 
 public class Whereismyshulker implements ModInitializer {
 
     @Override
     public void onInitialize() {
+        // server-side tracking, only does anything on dedicated servers
+        ServerShulkerBoxTracker tracker = ServerShulkerBoxTracker.getInstance();
+        ServerLifecycleEvents.SERVER_STARTING.register(tracker::onServerStarting);
+        ServerLifecycleEvents.BEFORE_SAVE.register((server, flush, force) -> tracker.onSave(server));
+        ServerLifecycleEvents.SERVER_STOPPED.register(tracker::onServerStopped);
+        ServerBlockEntityEvents.BLOCK_ENTITY_LOAD.register(tracker::onBlockEntityLoaded);
     }
 }
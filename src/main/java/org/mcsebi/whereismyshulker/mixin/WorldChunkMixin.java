@@ -0,0 +1,25 @@
+package org.mcsebi.whereismyshulker.mixin;
+
+import net.minecraft.block.entity.ShulkerBoxBlockEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.WorldChunk;
+import org.mcsebi.whereismyshulker.server.ServerShulkerBoxTracker;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(WorldChunk.class)
+public abstract class WorldChunkMixin {
+
+    // only called when the block at the position changes, unloading a chunk doesn't remove its block entities
+    @Inject(method = "removeBlockEntity", at = @At("HEAD"))
+    private void whereismyshulker$onRemoveBlockEntity(BlockPos pos, CallbackInfo ci) {
+        WorldChunk chunk = (WorldChunk) (Object) this;
+        if (chunk.getWorld() instanceof ServerWorld world
+                && chunk.getBlockEntity(pos, WorldChunk.CreationType.CHECK) instanceof ShulkerBoxBlockEntity) {
+            ServerShulkerBoxTracker.getInstance().onShulkerBoxRemoved(world, pos);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.mcsebi.whereismyshulker.server;
+
+/**
+ * A shulker box tracked by the server.
+ *
+ * @param packedPos Position as returned by {@code BlockPos.asLong()}
+ * @param color Color name, empty for undyed shulker boxes
+ * @param customName Custom name, empty if not named
+ * @param timestamp When the server first saw the shulker box, milliseconds since the epoch
+ */
+public record ServerShulkerBox(long packedPos, String color, String customName, long timestamp) {
+}
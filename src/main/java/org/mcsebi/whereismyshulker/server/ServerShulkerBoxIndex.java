@@ -0,0 +1,94 @@
+package org.mcsebi.whereismyshulker.server;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shulker boxes of one dimension, bucketed by chunk. Lookups by position go through the bucket of
+ * its chunk, so everything in a chunk can be read without touching the rest of the dimension.
+ */
+public class ServerShulkerBoxIndex {
+    private final Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<ServerShulkerBox>> chunks = new Long2ObjectOpenHashMap<>();
+    private int size;
+
+    /**
+     * Add a shulker box, replacing the one at the same position.
+     *
+     * @param box Shulker box to add
+     * @return The replaced shulker box, or null if the position was free
+     */
+    public ServerShulkerBox put(ServerShulkerBox box) {
+        ServerShulkerBox previous = chunks.computeIfAbsent(chunkOf(box.packedPos()), k -> new Long2ObjectOpenHashMap<>())
+                .put(box.packedPos(), box);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the shulker box at a position.
+     *
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @return The removed shulker box, or null if none was tracked there
+     */
+    public ServerShulkerBox remove(long packedPos) {
+        long chunk = chunkOf(packedPos);
+        Long2ObjectOpenHashMap<ServerShulkerBox> bucket = chunks.get(chunk);
+        if (bucket == null) {
+            return null;
+        }
+        ServerShulkerBox removed = bucket.remove(packedPos);
+        if (removed != null) {
+            size--;
+            if (bucket.isEmpty()) {
+                chunks.remove(chunk);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param packedPos Position as returned by {@code BlockPos.asLong()}
+     * @return The shulker box at that position, or null if there is none
+     */
+    public ServerShulkerBox get(long packedPos) {
+        Long2ObjectOpenHashMap<ServerShulkerBox> bucket = chunks.get(chunkOf(packedPos));
+        return bucket != null ? bucket.get(packedPos) : null;
+    }
+
+    /**
+     * @param chunkX Chunk x coordinate
+     * @param chunkZ Chunk z coordinate
+     * @return Shulker boxes in that chunk. Must not be modified and is only valid until the next change.
+     */
+    public Collection<ServerShulkerBox> getChunk(int chunkX, int chunkZ) {
+        Long2ObjectOpenHashMap<ServerShulkerBox> bucket = chunks.get(ChunkPos.toLong(chunkX, chunkZ));
+        return bucket != null ? bucket.values() : List.of();
+    }
+
+    /**
+     * @return Copy of all shulker boxes, e.g. to write them on another thread
+     */
+    public List<ServerShulkerBox> toList() {
+        List<ServerShulkerBox> all = new ArrayList<>(size);
+        for (Long2ObjectMap.Entry<Long2ObjectOpenHashMap<ServerShulkerBox>> chunk : chunks.long2ObjectEntrySet()) {
+            all.addAll(chunk.getValue().values());
+        }
+        return all;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long chunkOf(long packedPos) {
+        return ChunkPos.toLong(BlockPos.unpackLongX(packedPos) >> 4, BlockPos.unpackLongZ(packedPos) >> 4);
+    }
+}
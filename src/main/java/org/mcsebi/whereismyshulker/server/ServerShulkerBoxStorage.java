@@ -0,0 +1,151 @@
+package org.mcsebi.whereismyshulker.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the shulker boxes tracked by the server, one file per dimension in
+ * {@code <world>/data/whereismyshulker/}.
+ * <p>
+ * Files are written on a single background thread from immutable copies, so saving never blocks the
+ * server thread on disk. Every file is written to a temporary file first and moved into place.
+ */
+public class ServerShulkerBoxStorage {
+    // the server log is where server owners look, every problem of the storage is reported there
+    private static final Logger LOGGER = LoggerFactory.getLogger("whereismyshulker");
+    private static final int MAGIC = 0x57494D53; // "WIMS"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".bin";
+
+    private final Path directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WhereIsMyShulker-Server-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ServerShulkerBoxStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read all stored dimensions. Runs on the calling thread, only used while the server starts.
+     *
+     * @param loader Called with the dimension identifier and its index for every stored dimension
+     */
+    public void loadAll(Loader loader) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(EXTENSION)) {
+                    continue;
+                }
+                String dimension = URLDecoder.decode(name.substring(0, name.length() - EXTENSION.length()), StandardCharsets.UTF_8);
+                try {
+                    loader.load(dimension, read(file));
+                } catch (IOException e) {
+                    LOGGER.error("Could not read shulker boxes of {}", dimension, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not list stored shulker boxes in {}", directory, e);
+        }
+    }
+
+    private static ServerShulkerBoxIndex read(Path file) throws IOException {
+        ServerShulkerBoxIndex index = new ServerShulkerBoxIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a shulker box file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + ": " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                index.put(new ServerShulkerBox(in.readLong(), in.readUTF(), in.readUTF(), in.readLong()));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Queue writing the shulker boxes of a dimension.
+     *
+     * @param dimension Dimension identifier
+     * @param boxes Copy of all shulker boxes of the dimension
+     */
+    public void saveAsync(String dimension, List<ServerShulkerBox> boxes) {
+        executor.execute(() -> {
+            try {
+                write(dimension, boxes);
+            } catch (IOException e) {
+                LOGGER.error("Could not write shulker boxes of {}", dimension, e);
+            }
+        });
+    }
+
+    private void write(String dimension, List<ServerShulkerBox> boxes) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(URLEncoder.encode(dimension, StandardCharsets.UTF_8) + EXTENSION);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(boxes.size());
+            for (ServerShulkerBox box : boxes) {
+                out.writeLong(box.packedPos());
+                out.writeUTF(box.color());
+                out.writeUTF(box.customName());
+                out.writeLong(box.timestamp());
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Finish all queued writes and stop the writer thread. Used when the server stops.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out writing shulker boxes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Receives the stored dimensions.
+     */
+    public interface Loader {
+        void load(String dimension, ServerShulkerBoxIndex index);
+    }
+}
@@ -0,0 +1,212 @@
+package org.mcsebi.whereismyshulker.server;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.Block;
+import net.minecraft.block.ShulkerBoxBlock;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.block.entity.ShulkerBoxBlockEntity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.DyeColor;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Authoritative index of the shulker boxes in the worlds of a dedicated server.
+ * <p>
+ * Instead of guessing from what a player did, the server sees every shulker box block entity that is
+ * added to a loaded chunk and every one that is removed because its block changed, no matter whether a
+ * player, piston, explosion or dispenser caused it. Loading a chunk adds its shulker boxes as well,
+ * unloading it doesn't remove them. The boxes are kept per dimension, bucketed by chunk, see
+ * {@link ServerShulkerBoxIndex}.
+ * <p>
+ * Changed dimensions are written whenever the server saves its worlds, on a background thread, see
+ * {@link ServerShulkerBoxStorage}. Only used on the server thread.
+ */
+public class ServerShulkerBoxTracker {
+    private static final String STORAGE_DIRECTORY = "whereismyshulker";
+
+    private final Map<String, ServerShulkerBoxIndex> dimensions = new HashMap<>();
+    // positions changed since the last save, their custom name is read again before saving
+    private final Map<String, LongOpenHashSet> changed = new HashMap<>();
+    private ServerShulkerBoxStorage storage;
+
+    private ServerShulkerBoxTracker() {
+    }
+
+    public static ServerShulkerBoxTracker getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // initialized on first use, the class loader makes that thread-safe
+    private static final class Holder {
+        private static final ServerShulkerBoxTracker INSTANCE = new ServerShulkerBoxTracker();
+    }
+
+    /**
+     * @return True while a dedicated server is running and tracking shulker boxes
+     */
+    public boolean isActive() {
+        return storage != null;
+    }
+
+    /**
+     * Load the stored shulker boxes. Only dedicated servers track shulker boxes, in singleplayer the
+     * client does.
+     *
+     * @param server The starting server
+     */
+    public void onServerStarting(MinecraftServer server) {
+        if (!server.isDedicated()) {
+            return;
+        }
+        dimensions.clear();
+        changed.clear();
+        storage = new ServerShulkerBoxStorage(server.getSavePath(WorldSavePath.ROOT).resolve("data").resolve(STORAGE_DIRECTORY));
+        storage.loadAll(dimensions::put);
+    }
+
+    /**
+     * Write the dimensions that changed since the last save, called whenever the server saves.
+     *
+     * @param server The server
+     */
+    public void onSave(MinecraftServer server) {
+        if (!isActive() || changed.isEmpty()) {
+            return;
+        }
+        for (ServerWorld world : server.getWorlds()) {
+            String dimension = world.getRegistryKey().getValue().toString();
+            LongOpenHashSet positions = changed.remove(dimension);
+            if (positions == null) {
+                continue;
+            }
+            ServerShulkerBoxIndex index = dimensions.get(dimension);
+            if (index == null) {
+                continue;
+            }
+            refreshNames(world, index, positions);
+            storage.saveAsync(dimension, index.toList());
+        }
+        // dimensions that are no longer loaded
+        changed.clear();
+    }
+
+    /**
+     * Write everything that is left and wait for it. Called after the final save when the server stops.
+     */
+    public void onServerStopped(MinecraftServer server) {
+        if (!isActive()) {
+            return;
+        }
+        onSave(server);
+        storage.close();
+        storage = null;
+        dimensions.clear();
+        changed.clear();
+    }
+
+    /**
+     * Called when a block entity is added to a loaded chunk of a server world, for new and loaded ones.
+     *
+     * @param blockEntity The block entity
+     * @param world The world it is in
+     */
+    public void onBlockEntityLoaded(BlockEntity blockEntity, ServerWorld world) {
+        if (!isActive() || !(blockEntity instanceof ShulkerBoxBlockEntity shulkerBox)) {
+            return;
+        }
+        String dimension = world.getRegistryKey().getValue().toString();
+        long packedPos = blockEntity.getPos().asLong();
+        ServerShulkerBoxIndex index = dimensions.computeIfAbsent(dimension, k -> new ServerShulkerBoxIndex());
+
+        ServerShulkerBox existing = index.get(packedPos);
+        String color = colorOf(blockEntity.getCachedState().getBlock());
+        String name = nameOf(shulkerBox);
+        if (existing != null && existing.color().equals(color) && existing.customName().equals(name)) {
+            // a chunk with a known shulker box was loaded again
+            return;
+        }
+        long timestamp = existing != null ? existing.timestamp() : System.currentTimeMillis();
+        index.put(new ServerShulkerBox(packedPos, color, name, timestamp));
+        markChanged(dimension, packedPos);
+    }
+
+    /**
+     * Called when a block entity is removed from a server world because its block changed.
+     *
+     * @param world The world
+     * @param pos Position of the removed shulker box
+     */
+    public void onShulkerBoxRemoved(ServerWorld world, BlockPos pos) {
+        if (!isActive()) {
+            return;
+        }
+        String dimension = world.getRegistryKey().getValue().toString();
+        ServerShulkerBoxIndex index = dimensions.get(dimension);
+        if (index != null && index.remove(pos.asLong()) != null) {
+            markChanged(dimension, pos.asLong());
+        }
+    }
+
+    /**
+     * @param dimension Dimension identifier
+     * @return Shulker boxes of the dimension, or null if none are tracked there
+     */
+    public ServerShulkerBoxIndex getIndex(String dimension) {
+        return dimensions.get(dimension);
+    }
+
+    private void markChanged(String dimension, long packedPos) {
+        changed.computeIfAbsent(dimension, k -> new LongOpenHashSet()).add(packedPos);
+    }
+
+    /**
+     * Read the custom names of changed shulker boxes again. A placed shulker box gets the name of its
+     * item only after its block entity was added, so the name isn't known yet when it is tracked.
+     */
+    private void refreshNames(ServerWorld world, ServerShulkerBoxIndex index, LongOpenHashSet positions) {
+        for (LongIterator iterator = positions.iterator(); iterator.hasNext(); ) {
+            long packedPos = iterator.nextLong();
+            ServerShulkerBox box = index.get(packedPos);
+            BlockPos pos = BlockPos.fromLong(packedPos);
+            if (box == null || !world.isChunkLoaded(pos.getX() >> 4, pos.getZ() >> 4)) {
+                continue;
+            }
+            if (world.getBlockEntity(pos) instanceof ShulkerBoxBlockEntity shulkerBox) {
+                String name = nameOf(shulkerBox);
+                if (!name.equals(box.customName())) {
+                    index.put(new ServerShulkerBox(packedPos, box.color(), name, box.timestamp()));
+                }
+            }
+        }
+    }
+
+    private static String nameOf(ShulkerBoxBlockEntity shulkerBox) {
+        Text name = shulkerBox.getCustomName();
+        return name != null ? name.getString() : "";
+    }
+
+    /**
+     * @return Color name like "Light Blue", empty for undyed shulker boxes
+     */
+    private static String colorOf(Block block) {
+        DyeColor color = block instanceof ShulkerBoxBlock shulkerBoxBlock ? shulkerBoxBlock.getColor() : null;
+        if (color == null) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder();
+        for (String word : color.getId().split("_")) {
+            if (!result.isEmpty()) {
+                result.append(' ');
+            }
+            result.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,216 @@
+package org.mcsebi.whereismyshulker.client;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives a {@link ShulkerBoxSnapshotPublisher} the way {@link ShulkerBoxTracker} does while other
+ * threads read the published versions, and checks that every version a reader sees is consistent in
+ * itself and that versions only go up.
+ * <p>
+ * One thread plays the client thread: it changes the indices of several dimensions, loads, evicts
+ * and resets dimensions and publishes once per tick. After every tick it checks that the published
+ * version holds exactly the loaded dimensions.
+ */
+class ShulkerBoxSnapshotStressTest {
+    private static final int DIMENSIONS = 4;
+    private static final int READERS = 4;
+    private static final int TICKS = 2_000;
+    private static final int MAX_CHANGES_PER_TICK = 8;
+    // positions stay inside 0..AREA so readers can visit every chunk with forEachInRange
+    private static final int AREA = 512;
+    private static final BlockPos CENTER = new BlockPos(AREA / 2, 64, AREA / 2);
+
+    @Test
+    void readersSeeConsistentVersionsWhileClientThreadPublishes() throws Exception {
+        ShulkerBoxSnapshotPublisher publisher = new ShulkerBoxSnapshotPublisher();
+        AtomicBoolean ticking = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                readers.add(executor.submit(() -> read(publisher, ticking)));
+            }
+            Future<?> client = executor.submit(() -> {
+                try {
+                    tick(publisher, new Random(17));
+                } finally {
+                    ticking.set(false);
+                }
+            });
+
+            client.get(60, TimeUnit.SECONDS);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get(60, TimeUnit.SECONDS) > 0, "reader saw no snapshots");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Change, load, evict and reset dimensions like the client thread does and publish at the start
+     * of every tick, like {@link ShulkerBoxTracker#onTick}.
+     */
+    private static void tick(ShulkerBoxSnapshotPublisher publisher, Random random) {
+        List<String> dimensions = new ArrayList<>();
+        Map<String, ShulkerBoxIndex> indices = new HashMap<>();
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dimensions.add("test:dimension_" + i);
+            indices.put("test:dimension_" + i, new ShulkerBoxIndex());
+        }
+        // the first dimension is the current one and never evicted
+        Set<String> loaded = new HashSet<>();
+        loaded.add(dimensions.get(0));
+        publisher.markRebuilt(dimensions.get(0));
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            publisher.publish(dimension -> loaded.contains(dimension) ? indices.get(dimension) : null);
+            assertPublished(publisher.get(), indices, loaded);
+
+            int changes = random.nextInt(MAX_CHANGES_PER_TICK + 1);
+            for (int i = 0; i < changes; i++) {
+                String dimension = dimensions.get(random.nextInt(DIMENSIONS));
+                ShulkerBoxIndex index = indices.get(dimension);
+                BlockPos pos = new BlockPos(random.nextInt(AREA), random.nextInt(64), random.nextInt(AREA));
+                if (random.nextInt(3) == 0) {
+                    index.remove(dimension, pos.asLong());
+                } else {
+                    index.put(new ShulkerBoxData(pos, dimension, "Red", tick, random.nextBoolean() ? "Loot" : ""));
+                }
+                // the tracker marks changes of partitions that are still loading too
+                publisher.markChanged(dimension, pos.asLong());
+            }
+
+            String dimension = dimensions.get(1 + random.nextInt(DIMENSIONS - 1));
+            switch (random.nextInt(20)) {
+                case 0 -> {
+                    if (loaded.remove(dimension)) {
+                        publisher.markDropped(dimension);
+                    }
+                }
+                case 1 -> {
+                    if (loaded.add(dimension)) {
+                        publisher.markRebuilt(dimension);
+                    }
+                }
+                case 2 -> {
+                    if (loaded.contains(dimension)) {
+                        indices.get(dimension).clear();
+                        publisher.markRebuilt(dimension);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        publisher.publish(dimension -> loaded.contains(dimension) ? indices.get(dimension) : null);
+        assertPublished(publisher.get(), indices, loaded);
+
+        // leaving the world publishes an empty version
+        publisher.dropAll();
+        assertTrue(publisher.get().getDimensions().isEmpty(), "dimensions left after leaving the world");
+        assertEquals(0, publisher.get().size());
+    }
+
+    /**
+     * Check that a published version holds exactly the entries of the loaded dimensions.
+     */
+    private static void assertPublished(ShulkerBoxSnapshot snapshot, Map<String, ShulkerBoxIndex> indices,
+                                        Set<String> loaded) {
+        int total = 0;
+        for (Map.Entry<String, ShulkerBoxIndex> entry : indices.entrySet()) {
+            String dimension = entry.getKey();
+            ShulkerBoxIndex index = entry.getValue();
+            if (!loaded.contains(dimension)) {
+                assertFalse(snapshot.getDimensions().contains(dimension), "evicted " + dimension + " published");
+                continue;
+            }
+            assertEquals(index.size(dimension), snapshot.size(dimension), dimension);
+            index.forEach(data -> {
+                ShulkerBoxData published = snapshot.get(dimension, data.getPosition());
+                assertNotNull(published, data.toString());
+                assertEquals(data.getTimestamp(), published.getTimestamp(), data.toString());
+            });
+            total += index.size(dimension);
+        }
+        assertEquals(total, snapshot.size());
+    }
+
+    /**
+     * Check published snapshots until the client thread is done.
+     *
+     * @return Number of snapshots checked
+     */
+    private static int read(ShulkerBoxSnapshotPublisher publisher, AtomicBoolean ticking) {
+        long lastVersion = -1;
+        int checked = 0;
+        ShulkerBoxSnapshot kept = null;
+        int keptSize = 0;
+        while (ticking.get() || checked == 0) {
+            ShulkerBoxSnapshot snapshot = publisher.get();
+            assertTrue(snapshot.getVersion() >= lastVersion, "version went down");
+            lastVersion = snapshot.getVersion();
+
+            int total = 0;
+            for (String dimension : snapshot.getDimensions()) {
+                int inChunks = countChunkEntries(snapshot, dimension);
+                assertEquals(snapshot.size(dimension), inChunks, dimension);
+                total += inChunks;
+            }
+            assertEquals(snapshot.size(), total);
+
+            // a version that was read once never changes, no matter what is published later
+            if (kept == null || checked % 100 == 0) {
+                if (kept != null) {
+                    int again = 0;
+                    for (String dimension : kept.getDimensions()) {
+                        again += countChunkEntries(kept, dimension);
+                    }
+                    assertEquals(keptSize, again, "kept snapshot changed");
+                }
+                kept = snapshot;
+                keptSize = total;
+            }
+            checked++;
+        }
+        return checked;
+    }
+
+    /**
+     * Count the entries of all chunk lists of a dimension, checking that every entry belongs to the
+     * dimension and chunk it is listed in and that no position is listed twice.
+     */
+    private static int countChunkEntries(ShulkerBoxSnapshot snapshot, String dimension) {
+        LongOpenHashSet positions = new LongOpenHashSet();
+        int[] count = new int[1];
+        snapshot.forEachInRange(dimension, CENTER, AREA / 2, data -> {
+            assertEquals(dimension, data.getDimension());
+            BlockPos pos = data.getPosition();
+            assertTrue(positions.add(pos.asLong()), "position listed twice");
+            List<ShulkerBoxData> chunk = snapshot.getChunk(dimension, pos.getX() >> 4, pos.getZ() >> 4);
+            assertTrue(chunk.contains(data), "entry not in its own chunk");
+            count[0]++;
+        });
+        return count[0];
+    }
+}